@@ -0,0 +1,74 @@
+package com.github.ypiel.chronotask;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compare two JSON results of the benchmarks, e.g. of two commits: the score of each benchmark and parameters
+ * in both, and the change. A change greater than the threshold, 10% by default, and than the errors of both
+ * scores is a regression, the exit status is then 1.
+ * <p>
+ * {@code mvn -Pjmh exec:java -Dexec.mainClass=com.github.ypiel.chronotask.BenchmarkCompare
+ * -Dexec.args="target/jmh-before.json target/jmh-after.json [threshold %]"}
+ */
+public class BenchmarkCompare {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: BenchmarkCompare <before.json> <after.json> [threshold %]");
+            System.exit(2);
+        }
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) / 100 : 0.1;
+        Map<String, Score> before = read(new File(args[0]));
+        Map<String, Score> after = read(new File(args[1]));
+
+        int regressions = 0;
+        for (Map.Entry<String, Score> entry : after.entrySet()) {
+            Score current = entry.getValue();
+            Score previous = before.get(entry.getKey());
+            if (previous == null) {
+                System.out.printf("%-90s %12s %12.3f %s (new)%n", entry.getKey(), "", current.score(), current.unit());
+                continue;
+            }
+            // The scores are times, except for throughput where more is better
+            double change = (current.score() - previous.score()) / previous.score();
+            if (!current.unit().endsWith("/op")) {
+                change = -change;
+            }
+            boolean regression = change > threshold
+                    && Math.abs(current.score() - previous.score()) > current.error() + previous.error();
+            if (regression) {
+                regressions++;
+            }
+            System.out.printf("%-90s %12.3f %12.3f %s %+7.1f%%%s%n", entry.getKey(), previous.score(), current.score(),
+                    current.unit(), change * 100, regression ? "  REGRESSION" : "");
+        }
+        System.out.printf("%d benchmarks, %d regressions over %.0f%%%n", after.size(), regressions, threshold * 100);
+        System.exit(regressions > 0 ? 1 : 0);
+    }
+
+    private static Map<String, Score> read(File file) throws IOException {
+        Map<String, Score> scores = new LinkedHashMap<>();
+        for (JsonNode result : new ObjectMapper().readTree(file)) {
+            Map<String, String> params = new TreeMap<>();
+            result.path("params").fields().forEachRemaining(p -> params.put(p.getKey(), p.getValue().asText()));
+            String name = result.get("benchmark").asText().replace("com.github.ypiel.chronotask.business.", "")
+                    + (params.isEmpty() ? "" : " " + params);
+            JsonNode metric = result.get("primaryMetric");
+            double error = metric.path("scoreError").asDouble(0);
+            scores.put(name, new Score(metric.get("score").asDouble(), Double.isNaN(error) ? 0 : error,
+                    metric.get("scoreUnit").asText()));
+        }
+        return scores;
+    }
+
+    private record Score(double score, double error, String unit) {
+    }
+
+}
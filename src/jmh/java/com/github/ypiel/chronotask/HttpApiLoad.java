@@ -0,0 +1,86 @@
+package com.github.ypiel.chronotask;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load test of the HTTP API: {@code clients} virtual threads poll the given URLs in turn during {@code seconds},
+ * then the requests per second and the latencies are printed.
+ * <p>
+ * {@code mvn -Pjmh exec:java -Dexec.mainClass=com.github.ypiel.chronotask.HttpApiLoad
+ * -Dexec.args="<clients> <seconds> <url>..."}
+ */
+public class HttpApiLoad {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.out.println("Usage: HttpApiLoad <clients> <seconds> <url>...");
+            System.exit(2);
+        }
+        int clients = Integer.parseInt(args[0]);
+        Duration duration = Duration.ofSeconds(Long.parseLong(args[1]));
+        List<HttpRequest> requests = new ArrayList<>();
+        for (int i = 2; i < args.length; i++) {
+            requests.add(HttpRequest.newBuilder(URI.create(args[i])).GET().build());
+        }
+
+        HttpClient client = HttpClient.newBuilder()
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build();
+        AtomicLong errors = new AtomicLong();
+        long[][] latencies = new long[clients][];
+        int[] counts = new int[clients];
+        long end = System.nanoTime() + duration.toNanos();
+
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int c = 0; c < clients; c++) {
+                int index = c;
+                executor.execute(() -> {
+                    long[] nanos = new long[1024];
+                    int count = 0;
+                    while (System.nanoTime() < end) {
+                        long start = System.nanoTime();
+                        try {
+                            HttpResponse<byte[]> response = client.send(requests.get(count % requests.size()), HttpResponse.BodyHandlers.ofByteArray());
+                            if (response.statusCode() != 200) {
+                                errors.incrementAndGet();
+                            }
+                        } catch (Exception e) {
+                            errors.incrementAndGet();
+                        }
+                        if (count == nanos.length) {
+                            nanos = Arrays.copyOf(nanos, count * 2);
+                        }
+                        nanos[count++] = System.nanoTime() - start;
+                    }
+                    latencies[index] = nanos;
+                    counts[index] = count;
+                });
+            }
+        }
+
+        int total = Arrays.stream(counts).sum();
+        long[] all = new long[total];
+        int offset = 0;
+        for (int c = 0; c < clients; c++) {
+            System.arraycopy(latencies[c], 0, all, offset, counts[c]);
+            offset += counts[c];
+        }
+        Arrays.sort(all);
+        System.out.printf("%d clients, %d requests in %ds: %.0f requests/s, %d errors%n", clients, total,
+                duration.toSeconds(), total / (double) duration.toSeconds(), errors.get());
+        if (total > 0) {
+            System.out.printf("latency p50 %.2fms, p99 %.2fms, max %.2fms%n", all[total / 2] / 1e6,
+                    all[(int) (total * 0.99)] / 1e6, all[total - 1] / 1e6);
+        }
+    }
+
+}
@@ -0,0 +1,169 @@
+package com.github.ypiel.chronotask;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.github.ypiel.chronotask.business.DatasetGenerator;
+import com.github.ypiel.chronotask.business.Period;
+import com.github.ypiel.chronotask.business.PersistenceService;
+import com.github.ypiel.chronotask.business.TaskExporter;
+import com.github.ypiel.chronotask.business.TimeRollups;
+import com.github.ypiel.chronotask.model.Task;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Measure how the application behaves with a large save directory, without JavaFX: the time to load the tasks
+ * and compute their rollups as at startup, the heap they retain, the time of a full save and of an export.
+ * Each step runs once, cold, as when the application starts.
+ * <p>
+ * The tasks are generated by the {@link DatasetGenerator}, with its options, or read from {@code --input}, a
+ * {@code List<Task>} such as {@code chrono-task.json} or a backup. They are saved in {@code --dir}, a new
+ * temporary directory by default, in the current format.
+ * <p>
+ * {@code --max-load-ms}, {@code --max-heap-mb}, {@code --max-save-ms} and {@code --max-export-ms} are the
+ * budgets: the exit status is 1 if one of them is exceeded.
+ * <p>
+ * {@code mvn -Pjmh exec:java -Dexec.mainClass=com.github.ypiel.chronotask.ScaleHarness
+ * -Dexec.args="--tasks 100000 --days 1825 --max-load-ms 5000 --max-heap-mb 1024"}
+ */
+public class ScaleHarness {
+
+    private static final List<String> BUDGETS = List.of("load", "heap", "save", "export");
+
+    public static void main(String[] args) throws IOException {
+        if (System.getProperty("log4j.configurationFile") == null) {
+            System.setProperty("log4j.configurationFile", "log4j2-cli.xml");
+        }
+        Map<String, String> options;
+        try {
+            options = DatasetGenerator.options(args);
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            System.exit(2);
+            return;
+        }
+        ObjectMapper mapper = JsonMapper.builder().findAndAddModules().build();
+        Path dir = options.containsKey("dir") ? Paths.get(options.get("dir")) : Files.createTempDirectory("chrono-task-scale");
+        Map<String, Long> results = new LinkedHashMap<>();
+
+        // The dataset is saved in the current format as the application would, by migrating chrono-task.json
+        long start = System.nanoTime();
+        if (options.containsKey("input")) {
+            Files.createDirectories(dir);
+            Files.copy(Paths.get(options.get("input")), dir.resolve("chrono-task.json"));
+        } else {
+            DatasetGenerator.Settings settings = DatasetGenerator.Settings.of(options);
+            System.out.println(settings);
+            DatasetGenerator.write(new DatasetGenerator(settings).generate(), dir.resolve("chrono-task.json"), mapper);
+        }
+        results.put("generate", millisSince(start));
+        start = System.nanoTime();
+        PersistenceService migration = persistence(dir, mapper);
+        List<Task> migrated = migration.load();
+        migration.close(() -> migrated);
+        results.put("migrate", millisSince(start));
+
+        long heapBefore = usedHeap();
+        start = System.nanoTime();
+        PersistenceService persistence = persistence(dir, mapper);
+        List<Task> tasks = persistence.load();
+        results.put("load", millisSince(start));
+        start = System.nanoTime();
+        TimeRollups rollups = new TimeRollups();
+        rollups.load(tasks);
+        results.put("rollups", millisSince(start));
+        results.put("heap", (usedHeap() - heapBefore) / (1024 * 1024));
+        results.put("tasks", (long) count(tasks));
+        results.put("days", days(tasks));
+
+        start = System.nanoTime();
+        Period period = Period.valueOf(options.getOrDefault("export-period", "year").toUpperCase(Locale.ROOT));
+        LocalDate today = LocalDate.now();
+        new TaskExporter(TaskExporter.Format.TEXT, Duration.ofMinutes(2), true)
+                .export(tasks, period.from(today), period.to(today), Writer.nullWriter());
+        results.put("export", millisSince(start));
+
+        // All the main tasks changed, as after a day changed
+        tasks.forEach(task -> persistence.task(null, task));
+        persistence.close(() -> tasks);
+        results.put("save", persistence.getLastSaveMillis());
+        results.put("size", persistence.getLastSaveBytes() / (1024 * 1024));
+
+        System.out.printf("%d tasks, %d days of history, in %s%n", results.get("tasks"), results.get("days"), dir);
+        int exceeded = 0;
+        for (Map.Entry<String, Long> result : results.entrySet()) {
+            String name = result.getKey();
+            if (name.equals("tasks") || name.equals("days")) {
+                continue;
+            }
+            String unit = name.equals("heap") || name.equals("size") ? "MB" : "ms";
+            String budget = options.get("max-" + name + "-" + unit.toLowerCase(Locale.ROOT));
+            boolean over = budget != null && result.getValue() > Long.parseLong(budget);
+            if (over) {
+                exceeded++;
+            }
+            System.out.printf("%-8s %8d %s%s%n", name, result.getValue(), unit,
+                    budget == null ? "" : String.format("  (budget %s %s)%s", budget, unit, over ? " EXCEEDED" : ""));
+        }
+        if (exceeded > 0) {
+            System.out.printf("%d of the budgets of %s exceeded.%n", exceeded, BUDGETS);
+        }
+        System.exit(exceeded > 0 ? 1 : 0);
+    }
+
+    private static PersistenceService persistence(Path dir, ObjectMapper mapper) {
+        PersistenceService persistence = new PersistenceService(dir, mapper);
+        persistence.setBackups(false);
+        return persistence;
+    }
+
+    /**
+     * @return the heap used after a full collection, so only what is still referenced is counted.
+     */
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static long millisSince(long start) {
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+
+    private static int count(List<Task> tasks) {
+        int count = tasks.size();
+        for (Task task : tasks) {
+            count += count(task.getSubTasks());
+        }
+        return count;
+    }
+
+    private static long days(List<Task> tasks) {
+        List<Task> all = new ArrayList<>(tasks);
+        long days = 0;
+        for (int i = 0; i < all.size(); i++) {
+            days += all.get(i).getDurationsByDate().size();
+            all.addAll(all.get(i).getSubTasks());
+        }
+        return days;
+    }
+
+}
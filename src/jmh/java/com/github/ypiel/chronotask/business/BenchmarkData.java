@@ -0,0 +1,32 @@
+package com.github.ypiel.chronotask.business;
+
+import com.github.ypiel.chronotask.model.Task;
+
+import java.util.List;
+
+/**
+ * The tasks of the benchmarks, from the {@link DatasetGenerator}: one main task for nine sub-tasks, two years of
+ * history, eight tags and small notes.
+ */
+final class BenchmarkData {
+
+    private static final int DAYS = 2 * 365;
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * @return {@code count} tasks, main tasks and their sub-tasks, always the same ones.
+     */
+    static List<Task> tasks(int count) {
+        return new DatasetGenerator(new DatasetGenerator.Settings(count, 1, 9, DAYS, 8, 1.0, 200, 42)).generate();
+    }
+
+    /**
+     * @return notes in markdown of about {@code length} characters.
+     */
+    static String notes(int length) {
+        return new DatasetGenerator(DatasetGenerator.Settings.defaults()).notes(length);
+    }
+
+}
@@ -0,0 +1,263 @@
+package com.github.ypiel.chronotask.business;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.github.ypiel.chronotask.model.DurationHistory;
+import com.github.ypiel.chronotask.model.Status;
+import com.github.ypiel.chronotask.model.Task;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Generate the tasks of years of use, always the same ones for the same settings.
+ * <p>
+ * A main task is worked on during a few months, its sub-tasks, down to the given depth, during a few weeks of
+ * them. The time of a task is also added to its parents, as when a todo is tracked. The tags follow a Zipf
+ * distribution, a few are on most tasks. The notes are markdown: titles, paragraphs, lists, links and code.
+ * <p>
+ * {@code mvn -Pjmh exec:java -Dexec.mainClass=com.github.ypiel.chronotask.business.DatasetGenerator
+ * -Dexec.args="[--tasks 10000] [--depth 1] [--sub-tasks 9] [--days 1825] [--tags 50] [--tag-skew 1.0]
+ * [--notes 2000] [--seed 42] --out chrono-task.json"} writes them as a {@code List<Task>}, the format of {@code chrono-task.json}: it is
+ * migrated by the application when it is alone in the save directory.
+ */
+public class DatasetGenerator {
+
+    private static final String[] WORDS = {"connector", "review", "meeting", "release", "migration", "database",
+            "pipeline", "customer", "support", "schema", "performance", "documentation", "security", "upgrade",
+            "dashboard", "export", "import", "cloud", "studio", "runtime", "component", "mapping", "job", "test",
+            "design", "api", "incident", "planning", "refactoring", "deployment"};
+    private static final String[] TAGS = {"dev", "review", "meeting", "support", "ops", "design", "test", "doc"};
+
+    /**
+     * @param tasks     the number of tasks, main tasks and sub-tasks.
+     * @param depth     the levels of sub-tasks under a main task, {@code 0} for main tasks only.
+     * @param subTasks  the number of sub-tasks of a task, at most.
+     * @param days      the days of history, up to today.
+     * @param tags      the number of different tags.
+     * @param tagSkew   the exponent of the Zipf distribution of the tags, {@code 0} for a uniform one.
+     * @param notesSize the average size of the notes of a task, in characters.
+     */
+    public record Settings(int tasks, int depth, int subTasks, int days, int tags, double tagSkew, int notesSize,
+                           long seed) {
+
+        public static Settings defaults() {
+            return new Settings(10_000, 1, 9, 5 * 365, 50, 1.0, 2000, 42);
+        }
+
+        /**
+         * @return the settings given by {@code --tasks}, {@code --depth}, {@code --sub-tasks}, {@code --days},
+         * {@code --tags}, {@code --tag-skew}, {@code --notes} and {@code --seed}, the defaults for the others.
+         */
+        public static Settings of(Map<String, String> options) {
+            Settings defaults = defaults();
+            return new Settings(
+                    Integer.parseInt(options.getOrDefault("tasks", Integer.toString(defaults.tasks()))),
+                    Integer.parseInt(options.getOrDefault("depth", Integer.toString(defaults.depth()))),
+                    Integer.parseInt(options.getOrDefault("sub-tasks", Integer.toString(defaults.subTasks()))),
+                    Integer.parseInt(options.getOrDefault("days", Integer.toString(defaults.days()))),
+                    Integer.parseInt(options.getOrDefault("tags", Integer.toString(defaults.tags()))),
+                    Double.parseDouble(options.getOrDefault("tag-skew", Double.toString(defaults.tagSkew()))),
+                    Integer.parseInt(options.getOrDefault("notes", Integer.toString(defaults.notesSize()))),
+                    Long.parseLong(options.getOrDefault("seed", Long.toString(defaults.seed()))));
+        }
+    }
+
+    private final Settings settings;
+    private final Random random;
+    private final double[] tagWeights;
+    private final LocalDate today = LocalDate.now();
+    private int created = 0;
+
+    public DatasetGenerator(Settings settings) {
+        this.settings = settings;
+        this.random = new Random(settings.seed());
+        // Cumulative weights of the tags, the first ones the most frequent
+        this.tagWeights = new double[Math.max(1, settings.tags())];
+        double sum = 0;
+        for (int i = 0; i < tagWeights.length; i++) {
+            sum += 1 / Math.pow(i + 1, settings.tagSkew());
+            tagWeights[i] = sum;
+        }
+        for (int i = 0; i < tagWeights.length; i++) {
+            tagWeights[i] /= sum;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = options(args);
+        if (!options.containsKey("out")) {
+            System.out.println("Usage: DatasetGenerator [--tasks n] [--depth n] [--sub-tasks n] [--days n] [--tags n]"
+                    + " [--tag-skew x] [--notes n] [--seed n] --out file.json");
+            System.exit(2);
+        }
+        Settings settings = Settings.of(options);
+        long start = System.nanoTime();
+        List<Task> tasks = new DatasetGenerator(settings).generate();
+        Path out = Paths.get(options.get("out"));
+        write(tasks, out, JsonMapper.builder().findAndAddModules().build());
+        System.out.printf("%s: %d tasks written in %d ms, %d bytes%n", out, settings.tasks(),
+                (System.nanoTime() - start) / 1_000_000, Files.size(out));
+    }
+
+    /**
+     * @return {@code --name value} options by name.
+     */
+    public static Map<String, String> options(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument " + args[i] + ".");
+            }
+            String name = args[i].substring(2);
+            options.put(name, i + 1 < args.length && !args[i + 1].startsWith("--") ? args[++i] : "true");
+        }
+        return options;
+    }
+
+    /**
+     * Write the tasks as a {@code List<Task>}, the format of {@code chrono-task.json}.
+     */
+    public static void write(List<Task> tasks, Path file, ObjectMapper mapper) throws IOException {
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        try (OutputStream out = Files.newOutputStream(file)) {
+            mapper.writeValue(out, tasks);
+        }
+    }
+
+    /**
+     * @return the main tasks, with their sub-tasks.
+     */
+    public List<Task> generate() {
+        List<Task> mainTasks = new ArrayList<>();
+        while (created < settings.tasks()) {
+            LocalDate start = today.minusDays(random.nextInt(Math.max(1, settings.days())));
+            LocalDate end = min(start.plusDays(30 + random.nextInt(180)), today);
+            Task main = task("PROJ-" + (1000 + mainTasks.size()), mainTasks.size() + 1, start, end);
+            addTime(List.of(main), start, end, 0.6);
+            addSubTasks(new ArrayList<>(List.of(main)), 1, start, end);
+            mainTasks.add(main);
+        }
+        return mainTasks;
+    }
+
+    /**
+     * @return notes in markdown of about {@code length} characters.
+     */
+    public String notes(int length) {
+        StringBuilder notes = new StringBuilder(length + 200);
+        while (notes.length() < length) {
+            notes.append("## ").append(words(3)).append("\n\n")
+                    .append(words(40)).append(" **").append(words(2)).append("** ").append(words(20)).append(".\n\n")
+                    .append("- [ ] ").append(words(6)).append('\n')
+                    .append("- [x] ").append(words(6)).append('\n')
+                    .append("- see [PROJ-").append(random.nextInt(1000))
+                    .append("](https://jira.example.com/browse/PROJ-").append(random.nextInt(1000)).append(")\n\n")
+                    .append("```\n").append(words(10)).append("\n```\n\n");
+        }
+        return notes.toString();
+    }
+
+    /**
+     * Add the sub-tasks of the last task of {@code path}, and theirs down to the depth.
+     */
+    private void addSubTasks(List<Task> path, int level, LocalDate from, LocalDate to) {
+        if (level > settings.depth()) {
+            return;
+        }
+        Task parent = path.get(path.size() - 1);
+        long window = Math.max(1, to.toEpochDay() - from.toEpochDay());
+        for (int i = 0; i < settings.subTasks() && created < settings.tasks(); i++) {
+            LocalDate start = from.plusDays(random.nextLong(window));
+            LocalDate end = min(start.plusDays(3 + random.nextInt(40)), to);
+            Task sub = task(parent.getId() + "-" + (i + 1), i + 1, start, end);
+            parent.getSubTasks().add(sub);
+            path.add(sub);
+            addTime(path, start, end, 0.5);
+            addSubTasks(path, level + 1, start, end);
+            path.remove(path.size() - 1);
+        }
+    }
+
+    private Task task(String id, int order, LocalDate start, LocalDate end) {
+        created++;
+        Task task = new Task();
+        task.setId(id);
+        task.setOrder(order);
+        task.setShortDescription(words(3 + random.nextInt(5)));
+        boolean old = end.isBefore(today.minusDays(30));
+        task.setStatus(old && random.nextInt(10) > 0 ? Status.Closed : Status.values()[random.nextInt(3)]);
+        List<String> tags = new ArrayList<>();
+        for (int i = random.nextInt(3); i > 0; i--) {
+            String tag = tag();
+            if (!tags.contains(tag)) {
+                tags.add(tag);
+            }
+        }
+        task.setTags(tags);
+        if (settings.notesSize() > 0) {
+            task.setNotes(notes(random.nextInt(2 * settings.notesSize())));
+        }
+        task.setDurationsByDate(new DurationHistory());
+        return task;
+    }
+
+    /**
+     * Add time on the working days between {@code start} and {@code end} to the last task of {@code path}, and
+     * the same time to its parents.
+     */
+    private void addTime(List<Task> path, LocalDate start, LocalDate end, double probability) {
+        Task task = path.get(path.size() - 1);
+        for (LocalDate date = start; !date.isAfter(end); date = date.plusDays(1)) {
+            if (date.getDayOfWeek() == DayOfWeek.SATURDAY || date.getDayOfWeek() == DayOfWeek.SUNDAY
+                    || random.nextDouble() >= probability) {
+                continue;
+            }
+            long millis = 60_000L * (10 + random.nextInt(230));
+            long epochDay = date.toEpochDay();
+            for (Task t : path) {
+                t.getDurationsByDate().addMillis(epochDay, millis);
+            }
+            if (random.nextInt(10) == 0) {
+                task.getDurationsByDate().setNotes(epochDay, words(8));
+            }
+        }
+    }
+
+    private String tag() {
+        double r = random.nextDouble();
+        int index = 0;
+        while (index < tagWeights.length - 1 && tagWeights[index] < r) {
+            index++;
+        }
+        return index < TAGS.length ? TAGS[index] : "tag-" + index;
+    }
+
+    private String words(int count) {
+        StringBuilder words = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                words.append(' ');
+            }
+            words.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return words.toString();
+    }
+
+    private static LocalDate min(LocalDate a, LocalDate b) {
+        return a.isBefore(b) ? a : b;
+    }
+
+}
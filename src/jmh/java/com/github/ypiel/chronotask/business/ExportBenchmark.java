@@ -0,0 +1,59 @@
+package com.github.ypiel.chronotask.business;
+
+import com.github.ypiel.chronotask.model.Task;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The export of the time spent on the tasks during a period, written to a writer discarding it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ExportBenchmark {
+
+    @Param({"100", "10000", "100000"})
+    private int tasks;
+
+    @Param({"WEEK", "YEAR"})
+    private Period period;
+
+    @Param({"TEXT", "CSV"})
+    private TaskExporter.Format format;
+
+    private List<Task> mainTasks;
+    private TaskExporter exporter;
+
+    @Setup
+    public void setUp() {
+        mainTasks = BenchmarkData.tasks(tasks);
+        exporter = new TaskExporter(format, Duration.ofMinutes(2), true);
+    }
+
+    @Benchmark
+    public void export() throws IOException {
+        LocalDate today = LocalDate.now();
+        exporter.export(mainTasks, period.from(today), period.to(today), Writer.nullWriter());
+    }
+
+}
@@ -0,0 +1,64 @@
+package com.github.ypiel.chronotask.business;
+
+import com.github.ypiel.chronotask.model.Status;
+import com.github.ypiel.chronotask.model.Task;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The filter of the task table: the query is searched in the index, then each main task is tested as by the
+ * predicate of the table, without JavaFX.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class FilterBenchmark {
+
+    @Param({"100", "10000", "100000"})
+    private int tasks;
+
+    @Param({"rev", "review meeting", "proj-1042"})
+    private String query;
+
+    private List<Task> mainTasks;
+    private TaskSearchIndex searchIndex;
+
+    @Setup
+    public void setUp() throws IOException {
+        mainTasks = BenchmarkData.tasks(tasks);
+        searchIndex = new TaskSearchIndex(new NotesStore(Files.createTempDirectory("chrono-task-benchmark")), Runnable::run);
+        searchIndex.index(mainTasks, false);
+    }
+
+    @Benchmark
+    public int filter() {
+        Map<String, Integer> scores = searchIndex.search(query);
+        int shown = 0;
+        for (Task task : mainTasks) {
+            if (task.getStatus() != Status.Closed && (scores == null || scores.containsKey(task.getUid()))) {
+                shown++;
+            }
+        }
+        return shown;
+    }
+
+}
@@ -0,0 +1,45 @@
+package com.github.ypiel.chronotask.business;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The rendering of the notes shown by the notes editor, by their size in characters: it is the same for any
+ * number of tasks, only the notes of the selected task are rendered.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MarkdownBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    private int length;
+
+    private final MarkdownRenderService renderService = new MarkdownRenderService();
+    private String notes;
+
+    @Setup
+    public void setUp() {
+        notes = BenchmarkData.notes(length);
+    }
+
+    @Benchmark
+    public String render() {
+        return renderService.render(notes);
+    }
+
+}
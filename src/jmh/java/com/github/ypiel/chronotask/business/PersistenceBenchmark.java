@@ -0,0 +1,101 @@
+package com.github.ypiel.chronotask.business;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.github.ypiel.chronotask.model.Task;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Writing and reading the tasks with the mapper of the application, as in the snapshot of the tasks, and with the
+ * binary format of their shards.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class PersistenceBenchmark {
+
+    @Param({"100", "10000", "100000"})
+    private int tasks;
+
+    private final ObjectMapper mapper = JsonMapper.builder().findAndAddModules().build();
+    private final TaskBinaryCodec codec = new TaskBinaryCodec();
+    private List<Task> mainTasks;
+    private byte[] json;
+    private Path binaryDir;
+    private List<Path> binaryFiles;
+
+    @Setup
+    public void setUp() throws IOException {
+        mainTasks = BenchmarkData.tasks(tasks);
+        json = mapper.writeValueAsBytes(mainTasks);
+        binaryDir = Files.createTempDirectory("chrono-task-benchmark");
+        binaryFiles = new ArrayList<>();
+        for (Task task : mainTasks) {
+            Path file = binaryDir.resolve(task.getUid() + ".bin");
+            try (var out = Files.newOutputStream(file)) {
+                codec.write(task, out);
+            }
+            binaryFiles.add(file);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        for (Path file : binaryFiles) {
+            Files.delete(file);
+        }
+        Files.delete(binaryDir);
+    }
+
+    @Benchmark
+    public byte[] writeJson() throws IOException {
+        return mapper.writeValueAsBytes(mainTasks);
+    }
+
+    @Benchmark
+    public List<Task> readJson() throws IOException {
+        return mapper.readValue(json, mapper.getTypeFactory().constructCollectionType(List.class, Task.class));
+    }
+
+    @Benchmark
+    public int writeBinary() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(json.length / 2);
+        for (Task task : mainTasks) {
+            codec.write(task, out);
+        }
+        return out.size();
+    }
+
+    @Benchmark
+    public List<Task> readBinary() throws IOException {
+        List<Task> read = new ArrayList<>(binaryFiles.size());
+        for (Path file : binaryFiles) {
+            read.add(codec.read(file));
+        }
+        return read;
+    }
+
+}
@@ -0,0 +1,71 @@
+package com.github.ypiel.chronotask.business;
+
+import com.github.ypiel.chronotask.model.Task;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * One tick of the {@link DurationManager}: the time elapsed is added to the history and the rollups of each
+ * tracked task. The clock advances by one millisecond per tick, so each one records time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class TickBenchmark {
+
+    @Param({"100", "10000", "100000"})
+    private int tasks;
+
+    @Param({"1", "10"})
+    private int tracked;
+
+    private List<Task> mainTasks;
+    private DurationManager durationManager;
+    private long clock;
+
+    @Setup
+    public void setUp() {
+        mainTasks = BenchmarkData.tasks(tasks);
+    }
+
+    @Setup(Level.Iteration)
+    public void startTracking() {
+        TimeRollups rollups = new TimeRollups();
+        rollups.load(mainTasks);
+        durationManager = new DurationManager(rollups, DurationManager.Tracking.INTERVAL, new TickScheduler());
+        for (int i = 0; i < tracked; i++) {
+            durationManager.addTasks(mainTasks.get(i % mainTasks.size()));
+        }
+        durationManager.start();
+        clock = System.currentTimeMillis();
+    }
+
+    @TearDown(Level.Iteration)
+    public void stopTracking() {
+        durationManager.stop();
+    }
+
+    @Benchmark
+    public void tick() {
+        durationManager.tick(++clock);
+    }
+
+}
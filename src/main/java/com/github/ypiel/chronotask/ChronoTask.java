@@ -1,36 +1,54 @@
 package com.github.ypiel.chronotask;
 
 
-import java.io.FileWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
 import java.nio.file.Files;
-import java.nio.file.LinkOption;
 import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
 import java.time.LocalDate;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.json.JsonMapper;
 import com.github.ypiel.chronotask.business.AutoTaskAction;
 import com.github.ypiel.chronotask.business.DurationManager;
+import com.github.ypiel.chronotask.business.HttpApi;
+import com.github.ypiel.chronotask.business.IntervalLog;
+import com.github.ypiel.chronotask.business.JfrEvents;
+import com.github.ypiel.chronotask.business.MarkdownRenderService;
+import com.github.ypiel.chronotask.business.Metrics;
+import com.github.ypiel.chronotask.business.Period;
+import com.github.ypiel.chronotask.business.PersistenceService;
+import com.github.ypiel.chronotask.business.SyncService;
+import com.github.ypiel.chronotask.business.TagRollups;
+import com.github.ypiel.chronotask.business.TaskExporter;
+import com.github.ypiel.chronotask.business.TaskSearchIndex;
+import com.github.ypiel.chronotask.business.TickScheduler;
 import com.github.ypiel.chronotask.control.DurationByDateTableView;
 import com.github.ypiel.chronotask.control.NotesEditor;
 import com.github.ypiel.chronotask.control.TaskTableView;
+import com.github.ypiel.chronotask.model.DurationHistory;
 import com.github.ypiel.chronotask.model.Task;
 
-import javafx.animation.KeyFrame;
-import javafx.animation.Timeline;
 import javafx.application.Application;
+import javafx.application.Platform;
+import javafx.beans.binding.BooleanBinding;
 import javafx.beans.value.ObservableValue;
+import javafx.collections.FXCollections;
+import javafx.collections.ListChangeListener;
 import javafx.geometry.Orientation;
 import javafx.scene.Scene;
 import javafx.scene.control.Button;
 import javafx.scene.control.CheckBox;
+import javafx.scene.control.ComboBox;
 import javafx.scene.control.DatePicker;
 import javafx.scene.control.Label;
 import javafx.scene.control.Separator;
@@ -45,8 +63,8 @@ import javafx.scene.control.ToggleButton;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.Priority;
 import javafx.scene.layout.VBox;
+import javafx.stage.FileChooser;
 import javafx.stage.Stage;
-import javafx.util.Duration;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 
@@ -56,74 +74,99 @@ public class ChronoTask extends Application implements AutoTaskAction.Destinatio
 
     public final static String[] mainTopics = {"TDI", "QCS", "TCK", "PROCESS", "CONNECTIVITY CONVERGENCE", "CODE REVIEW", "MEETING"};
 
-    private static final String SAVE_DIR = System.getProperty("chrono.task.dir", System.getProperty("user.home") + "/chrono-task");
-    private static final String SAVE_FILE = Paths.get(SAVE_DIR, "chrono-task.json").toString();
+    private static final int EXPORT_PREVIEW_LINES = 500;
 
-    private final DurationManager durationManager = new DurationManager();
+    private static final Path SAVE_DIR = PersistenceService.saveDir();
+
+    private final TickScheduler ticks = new TickScheduler();
+    private final DurationManager durationManager = new DurationManager(ticks);
 
     private TaskTableView taskTableView;
     private TaskTableView todoTableView;
 
+    private NotesEditor notesEditor;
+
     private ToggleButton btPause;
 
     private ObjectMapper jacksonMapper;
 
+    private PersistenceService persistence;
+
+    private TaskSearchIndex searchIndex;
+
+    private HttpApi httpApi;
+
+    private SyncService sync;
+
     private final AtomicBoolean autoSaveEnabled = new AtomicBoolean(true);
 
-    private Optional<Timeline> autoTaskActionTimeline = Optional.empty();
+    private Optional<TickScheduler.Subscription> autoTaskActionTicks = Optional.empty();
 
     private Stage stage;
 
+    private final ExecutorService exportExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "chrono-task-export");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final ExecutorService searchIndexExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "chrono-task-search-index");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final ExecutorService syncExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "chrono-task-sync");
+        thread.setDaemon(true);
+        return thread;
+    });
+
     @Override
     public void start(Stage primaryStage) {
         this.stage = primaryStage;
+        Metrics.registerMBeans();
+        initRecording();
         initSerialization();
 
         final List<Task> tasks = load();
+        durationManager.getRollups().load(tasks);
+        if (durationManager.getTracking() == DurationManager.Tracking.INTERVAL) {
+            durationManager.setIntervalLog(new IntervalLog(SAVE_DIR.resolve("chrono-task.intervals")));
+        }
         this.taskTableView = new TaskTableView(tasks);
+        initSearchIndex(tasks);
+        initHttpApi();
+        initMetrics();
         ToggleButton tbHideClosed = new ToggleButton("Hide closed");
         taskTableView.hideClosedProperty().bindBidirectional(tbHideClosed.selectedProperty());
         tbHideClosed.setSelected(true);
 
         durationManager.start();
 
-        final NotesEditor notesEditor = new NotesEditor();
+        notesEditor = new NotesEditor(persistence.getNotesStore(), new MarkdownRenderService());
 
-        final DurationByDateTableView durationByDateTableView = new DurationByDateTableView();
+        final DurationByDateTableView durationByDateTableView = new DurationByDateTableView(durationManager.getRollups());
 
         todoTableView = new TaskTableView();
-        final DurationByDateTableView todoDurationByDateTableView = new DurationByDateTableView();
+        final DurationByDateTableView todoDurationByDateTableView = new DurationByDateTableView(durationManager.getRollups());
 
         taskTableView.getSelectionModel().selectedItemProperty().addListener((observable, oldValue, newValue) -> {
             taskTableSelection(observable, oldValue, newValue, durationByDateTableView, notesEditor, todoTableView);
         });
 
-        Timeline timelineRefresh = new Timeline(new KeyFrame(Duration.seconds(1), event -> {
-            durationByDateTableView.refresh();
-        }));
-        timelineRefresh.setCycleCount(Timeline.INDEFINITE);
-        timelineRefresh.play();
-
-        // Auto-save every minute
-        Timeline autoSave = new Timeline(new KeyFrame(Duration.seconds(60), event -> {
+        // Changes are journaled as they happen, the journal is compacted into a snapshot every 15 minutes
+        ticks.subscribe("Autosave", java.time.Duration.ofMinutes(15), Platform::runLater, () -> {
             if (autoSaveEnabled.get()) {
-                store(taskTableView.getAllItems());
+                durationManager.checkpoint();
+                persistence.requestSave(() -> durationManager.snapshot(taskTableView.getAllItems()));
             }
-        }));
-        autoSave.setCycleCount(Timeline.INDEFINITE);
-        autoSave.play();
+        });
 
         todoTableView.getSelectionModel().selectedItemProperty().addListener((observable, oldValue, newValue) -> {
             todoTableSelection(observable, oldValue, newValue, todoDurationByDateTableView, notesEditor);
         });
 
-
-        Timeline timelineTodoRefresh = new Timeline(new KeyFrame(Duration.seconds(1), event -> {
-            todoDurationByDateTableView.refresh();
-        }));
-        timelineTodoRefresh.setCycleCount(Timeline.INDEFINITE);
-        timelineTodoRefresh.play();
-
         btPause = new ToggleButton("Pause");
         btPause.setOnAction(event -> {
             doPause();
@@ -131,11 +174,34 @@ public class ChronoTask extends Application implements AutoTaskAction.Destinatio
 
         Label currentTasks = new Label("");
         Label dayDuration = new Label("");
-        Timeline dayDurationRefresh = new Timeline(new KeyFrame(Duration.seconds(30), event -> {
-            updateDayDuration(dayDuration);
-        }));
-        dayDurationRefresh.setCycleCount(Timeline.INDEFINITE);
-        dayDurationRefresh.play();
+
+        taskTableView.setOnTaskChanged(task -> {
+            persistence.task(null, task);
+            if (sync != null) {
+                sync.task(null, task);
+            }
+            durationManager.getRollups().addMainTask(task);
+            durationManager.getRollups().updateTags(null, task);
+            searchIndex.update(null, task);
+            publishTasks();
+        });
+        todoTableView.setOnTaskChanged(task -> {
+            Task parent = taskTableView.getSelectionModel().getSelectedItem();
+            persistence.task(parent, task);
+            if (sync != null) {
+                sync.task(parent, task);
+            }
+            durationManager.getRollups().updateTags(parent, task);
+            searchIndex.update(parent, task);
+            publishTasks();
+        });
+        notesEditor.setOnNotesChanged((task, notes) -> {
+            persistence.notes(task);
+            Task mainTask = taskTableView.getSelectionModel().getSelectedItem();
+            searchIndex.updateNotes(task == mainTask ? null : mainTask, task, notes);
+        });
+        durationByDateTableView.setOnNotesChanged(d -> persistence.dayNotes(taskTableView.getSelectionModel().getSelectedItem(), d));
+        todoDurationByDateTableView.setOnNotesChanged(d -> persistence.dayNotes(todoTableView.getSelectionModel().getSelectedItem(), d));
 
         durationManager.addListener(new DurationManager.DurationManagerListener() {
             @Override
@@ -167,7 +233,24 @@ public class ChronoTask extends Application implements AutoTaskAction.Destinatio
             public void onTaskDurationResume(DurationManager durationManager) {
                 currentTasks.setText(durationManager.toString());
             }
+        }, Platform::runLater);
+        // On the tracking thread, so the durations are journaled before the persistence is closed at exit
+        durationManager.addListener(new DurationManager.DurationManagerListener() {
+            @Override
+            public void onTaskDurationUpdate(DurationManager durationManager, Task task, long epochDay, long millis) {
+                persistence.duration(task, epochDay, millis);
+                if (sync != null) {
+                    sync.duration(task, epochDay);
+                }
+            }
         });
+        try {
+            // Journaled by the listener above, and sent by the synchronization when it starts
+            durationManager.recoverIntervals(tasks);
+        } catch (IOException e) {
+            log.error("Can't recover the intervals left open.", e);
+        }
+        initSync(tasks);
 
 
         SplitPane splitPane = new SplitPane();
@@ -205,11 +288,10 @@ public class ChronoTask extends Application implements AutoTaskAction.Destinatio
             long spinnerValue = forceDurationSpinner.getValue();
             if (toUpdate != null && spinnerValue >= 0) {
                 log.info(String.format("Force duration for task %s", toUpdate.getShortDescription()));
-                LocalDate now = LocalDate.now();
-                toUpdate.getDurationsByDate().stream()
-                        .filter(d -> d.getDate().equals(now))
-                        .findAny()
-                        .ifPresent(d -> d.setDuration(java.time.Duration.ofMinutes(spinnerValue)));
+                LocalDate today = LocalDate.now();
+                if (toUpdate.getDurationsByDate().contains(today)) {
+                    durationManager.setDuration(toUpdate, today, java.time.Duration.ofMinutes(spinnerValue));
+                }
             }
 
             forceDurationSpinner.getValueFactory().setValue(-1);
@@ -242,12 +324,23 @@ public class ChronoTask extends Application implements AutoTaskAction.Destinatio
         spinner.setValueFactory(valueFactory);
         CheckBox cbDetailled = new CheckBox("Detailled");
         cbDetailled.setSelected(true);
+        CheckBox cbByTag = new CheckBox("By tag");
+        ComboBox<Period> cbPeriod = new ComboBox<>(FXCollections.observableArrayList(Period.values()));
+        cbPeriod.setValue(Period.DAY);
+        ComboBox<TaskExporter.Format> cbFormat = new ComboBox<>(FXCollections.observableArrayList(TaskExporter.Format.values()));
+        cbFormat.setValue(TaskExporter.Format.TEXT);
+        Supplier<TaskExporter> exporter = () -> new TaskExporter(cbFormat.getValue(),
+                java.time.Duration.ofMinutes(spinner.getValue()), cbDetailled.isSelected());
         Button btExport = new Button("Export");
         btExport.setOnAction(event -> {
-            exportAction(datePicker, spinner, taExport, cbDetailled.isSelected());
+            exportAction(datePicker.getValue(), cbPeriod.getValue(), exporter.get(), cbByTag.isSelected(), taExport);
+        });
+        Button btExportToFile = new Button("Export to file...");
+        btExportToFile.setOnAction(event -> {
+            exportToFile(datePicker.getValue(), cbPeriod.getValue(), exporter.get(), cbByTag.isSelected(), taExport);
         });
 
-        VBox vbExport = new VBox(new HBox(datePicker, new Label("(minimum of"), spinner, new Label(" minutes)"), cbDetailled, btExport), taExport);
+        VBox vbExport = new VBox(new HBox(datePicker, cbPeriod, new Label("(minimum of"), spinner, new Label(" minutes)"), cbDetailled, cbByTag, cbFormat, btExport, btExportToFile), taExport);
         VBox.setVgrow(taExport, Priority.ALWAYS);
 
 
@@ -256,6 +349,16 @@ public class ChronoTask extends Application implements AutoTaskAction.Destinatio
         Tab exportTab = new Tab("Export", vbExport);
         tabPane.getTabs().addAll(workingTab, exportTab);
 
+        // The refreshes of the views are suspended while they are hidden
+        BooleanBinding shown = primaryStage.iconifiedProperty().not();
+        BooleanBinding workShown = shown.and(workingTab.selectedProperty());
+        suspendUnless(ticks.subscribe("Durations refresh", java.time.Duration.ofSeconds(1), Platform::runLater,
+                durationByDateTableView::refreshDurations), workShown);
+        suspendUnless(ticks.subscribe("Todo durations refresh", java.time.Duration.ofSeconds(1), Platform::runLater,
+                todoDurationByDateTableView::refreshDurations), workShown.and(todoTableView.getSelectionModel().selectedItemProperty().isNotNull()));
+        suspendUnless(ticks.subscribe("Day duration refresh", java.time.Duration.ofSeconds(30), Platform::runLater,
+                () -> updateDayDuration(dayDuration)), shown);
+
         VBox main = new VBox(tabPane, bottom);
         VBox.setVgrow(tabPane, Priority.ALWAYS);
         VBox.setVgrow(bottom, Priority.ALWAYS);
@@ -268,6 +371,11 @@ public class ChronoTask extends Application implements AutoTaskAction.Destinatio
 
     }
 
+    private static void suspendUnless(TickScheduler.Subscription subscription, BooleanBinding condition) {
+        subscription.setSuspended(!condition.get());
+        condition.addListener((observable, oldValue, newValue) -> subscription.setSuspended(!newValue));
+    }
+
     private void doPause() {
         if (btPause.isSelected()) {
             durationManager.pause();
@@ -278,91 +386,92 @@ public class ChronoTask extends Application implements AutoTaskAction.Destinatio
         }
     }
 
-    private void exportAction(DatePicker datePicker, Spinner<Integer> spinner, TextArea taExport, boolean detailled) {
-        LocalDate localDate = datePicker.getValue();
-        java.time.Duration mini = java.time.Duration.ofMinutes(spinner.getValue());
-
-        String export = detailled ?
-                taskDurationFor(taskTableView.getAllItems(), localDate, mini, false) :
-                taskFor(taskTableView.getAllItems(), localDate, mini, false);
-
-        taExport.setText(export);
-    }
-
-    private String taskFor(List<Task> tasks, LocalDate date, java.time.Duration mini, boolean tab) {
-        StringBuilder sb = new StringBuilder();
-        boolean first = true;
-        for (Task t : tasks) {
-            Optional<Task.DurationByDate> durationByDate = t.getDurationsByDate().stream().filter(d -> d.getDate().equals(date)).findAny();
-
-            if (!durationByDate.isPresent() || durationByDate.get().getDuration().compareTo(mini) < 0) {
-                continue;
-            }
-            if (!first) {
-                sb.append("\n");
-            }
-            sb.append(tab ? "    - " : "- ")
-                    .append(t.getId()).append(": ").append(t.getShortDescription());
-
-            List<Task> subTasks = t.getSubTasks();
-            String subs = taskFor(subTasks, date, mini, true);
-            sb.append(subs.trim().isEmpty() ? "" : "\n" + subs);
-
-            first = false;
+    /**
+     * Pause or resume as the pause button does, for the HTTP API.
+     */
+    private void setPaused(boolean paused) {
+        if (btPause.isSelected() != paused) {
+            btPause.setSelected(paused);
+            doPause();
         }
-
-        return sb.toString();
     }
 
-    private String taskDurationFor(List<Task> tasks, LocalDate date, java.time.Duration mini, boolean tab) {
-        StringBuilder sb = new StringBuilder();
-
-        java.time.Duration dayDuration = java.time.Duration.ZERO;
-        boolean first = true;
-        for (Task t : tasks) {
-            Optional<Task.DurationByDate> durationByDate = t.getDurationsByDate().stream().filter(d -> d.getDate().equals(date)).findAny();
-
-            if (!durationByDate.isPresent() || durationByDate.get().getDuration().compareTo(mini) < 0) {
-                continue;
-            }
-
-            java.time.Duration duration = durationByDate.get().getDuration();
-            if (!first) {
-                sb.append("\n");
+    private void exportAction(LocalDate date, Period period, TaskExporter exporter, boolean byTag, TextArea taExport) {
+        LocalDate from = period.from(date);
+        LocalDate to = period.to(date);
+        durationManager.checkpoint();
+        List<Task> tasks = durationManager.snapshot(taskTableView.getAllItems());
+        taExport.setText("Exporting from " + from + " to " + to + "...");
+        exportExecutor.execute(() -> {
+            TaskExporter.Preview preview = new TaskExporter.Preview(EXPORT_PREVIEW_LINES);
+            try {
+                if (byTag) {
+                    exporter.exportTags(copyTags(), from, to, preview);
+                } else {
+                    exporter.export(tasks, from, to, preview);
+                }
+                Platform.runLater(() -> taExport.setText(preview.toString()));
+            } catch (Exception e) {
+                log.error("Export failed", e);
+                Platform.runLater(() -> taExport.setText("Export failed: " + e.getMessage()));
             }
+        });
+    }
 
-            dayDuration = dayDuration.plus(duration);
-            sb.append(tab ? "    " : "").append(formatDuration(duration)).append(" - ")
-                    .append(t.getViewId()).append(": ").append(t.getShortDescription());
-
-            List<Task> subTasks = t.getSubTasks();
-            String subs = taskDurationFor(subTasks, date, mini, true);
-            sb.append(subs.trim().isEmpty() ? "" : "\n" + subs);
-
-            first = false;
+    /**
+     * @return a copy of the time of the tags, taken under the lock of the tracking so the export does not hold
+     * it while it is written.
+     */
+    private TagRollups copyTags() {
+        synchronized (durationManager.getRollups()) {
+            return durationManager.getRollups().getTags().copy();
         }
+    }
 
-        if (!tab) {
-            sb.append("\n\nWorking day: ").append(formatDuration(dayDuration));
+    private void exportToFile(LocalDate date, Period period, TaskExporter exporter, boolean byTag, TextArea taExport) {
+        FileChooser fileChooser = new FileChooser();
+        fileChooser.setInitialFileName("chrono-task-" + period.from(date) + "." + switch (exporter.getFormat()) {
+            case TEXT -> "txt";
+            case CSV -> "csv";
+            case JSON_LINES -> "jsonl";
+            case MARKDOWN -> "md";
+        });
+        File file = fileChooser.showSaveDialog(stage);
+        if (file == null) {
+            return;
         }
 
-        return sb.toString();
+        LocalDate from = period.from(date);
+        LocalDate to = period.to(date);
+        durationManager.checkpoint();
+        List<Task> tasks = durationManager.snapshot(taskTableView.getAllItems());
+        taExport.setText("Exporting from " + from + " to " + to + " to " + file + "...");
+        exportExecutor.execute(() -> {
+            try (Writer out = Files.newBufferedWriter(file.toPath())) {
+                if (byTag) {
+                    exporter.exportTags(copyTags(), from, to, out);
+                } else {
+                    exporter.export(tasks, from, to, out);
+                }
+                Platform.runLater(() -> taExport.setText("Exported from " + from + " to " + to + " to " + file));
+            } catch (Exception e) {
+                log.error("Export failed", e);
+                Platform.runLater(() -> taExport.setText("Export failed: " + e.getMessage()));
+            }
+        });
     }
 
     private void updateDayDuration(Label dayDuration) {
         LocalDate now = LocalDate.now();
-        Optional<java.time.Duration> total = taskTableView.getAllItems().stream().flatMap(t -> t.getDurationsByDate().stream())
-                .filter(d -> d.getDate().equals(now))
-                .map(Task.DurationByDate::getDuration)
-                .reduce(java.time.Duration::plus);
-        dayDuration
-                .setText(total.map(d -> "Today: " + d.toHours() + "h " + d.toMinutesPart() + "m " + d.toSecondsPart() + "s")
-                        .orElse("Today: 0h 0m 0s"));
+        java.time.Duration d = durationManager.getLiveTotal(Period.DAY, now);
+        java.time.Duration w = durationManager.getLiveTotal(Period.WEEK, now);
+        dayDuration.setText("Today: " + d.toHours() + "h " + d.toMinutesPart() + "m " + d.toSecondsPart() + "s"
+                + " - Week: " + w.toHours() + "h " + w.toMinutesPart() + "m");
     }
 
     private void todoTableSelection(ObservableValue<? extends Task> observable, Task oldValue, Task newValue, DurationByDateTableView todoDurationByDateTableView, NotesEditor notesEditor) {
         if (observable.getValue() == null) {
-            todoDurationByDateTableView.setDurationsByDate(Collections.emptyList());
+            todoDurationByDateTableView.setDurationsByDate(new DurationHistory());
         }
 
         // Fix a bug about adding a todo to a task
@@ -381,18 +490,18 @@ public class ChronoTask extends Application implements AutoTaskAction.Destinatio
         }
 
         if (newValue != null) {
-            todoDurationByDateTableView.setDurationsByDate(newValue.getDurationsByDate());
-            newValue.setDurationsByDate(todoDurationByDateTableView.getItems());
+            todoDurationByDateTableView.setDurationsByDate(newValue.getDurationsByDate(), epochDay -> durationManager.getLiveMillis(newValue, epochDay));
             if (newValue.isValid()) {
                 durationManager.addTasks(newValue);
                 notesEditor.setTask(newValue);
+                notesEditor.prefetch(neighbours(todoTableView));
             }
         }
     }
 
     private void taskTableSelection(ObservableValue<? extends Task> observable, Task oldValue, Task newValue, DurationByDateTableView durationByDateTableView, NotesEditor notesEditor, TaskTableView todoTableView) {
         if (observable.getValue() == null) {
-            durationByDateTableView.setDurationsByDate(Collections.emptyList());
+            durationByDateTableView.setDurationsByDate(new DurationHistory());
         }
 
         if (oldValue != null) {
@@ -401,8 +510,7 @@ public class ChronoTask extends Application implements AutoTaskAction.Destinatio
         }
 
         if (newValue != null) {
-            durationByDateTableView.setDurationsByDate(newValue.getDurationsByDate());
-            newValue.setDurationsByDate(durationByDateTableView.getItems());
+            durationByDateTableView.setDurationsByDate(newValue.getDurationsByDate(), epochDay -> durationManager.getLiveMillis(newValue, epochDay));
 
             todoTableView.setTasks(newValue.getSubTasks());
             newValue.setSubTasks(todoTableView.getAllItems());
@@ -410,26 +518,37 @@ public class ChronoTask extends Application implements AutoTaskAction.Destinatio
             if (newValue.isValid()) {
                 durationManager.addTasks(newValue);
                 notesEditor.setTask(newValue);
+                notesEditor.prefetch(neighbours(taskTableView));
             }
         }
     }
 
+    /**
+     * @return the tasks before and after the selected one, the next ones to be selected when using the arrows.
+     */
+    private static List<Task> neighbours(TaskTableView tableView) {
+        int selected = tableView.getSelectionModel().getSelectedIndex();
+        List<Task> items = tableView.getItems();
+        List<Task> neighbours = new ArrayList<>(2);
+        if (selected > 0) {
+            neighbours.add(items.get(selected - 1));
+        }
+        if (selected >= 0 && selected + 1 < items.size()) {
+            neighbours.add(items.get(selected + 1));
+        }
+        return neighbours;
+    }
+
     private void startAutoTaskAction(Task task, Stage stage) {
         try {
             AutoTaskAction autoTaskAction = (AutoTaskAction) task.getAutoTaskAction().getDeclaredConstructor().newInstance();
             autoTaskAction.setDestination(this);
-            if (autoTaskActionTimeline.isPresent()) {
-                autoTaskActionTimeline.get().stop();
-            }
+            autoTaskActionTicks.ifPresent(TickScheduler.Subscription::cancel);
+            autoTaskActionTicks = Optional.empty();
 
             if (task != null && task.isValid()) {
-
-                Timeline timeline = new Timeline(new KeyFrame(Duration.seconds(autoTaskAction.getInterval().getSeconds()), event -> {
-                    autoTaskAction.run();
-                }));
-                timeline.setCycleCount(Timeline.INDEFINITE);
-                timeline.play();
-                this.autoTaskActionTimeline = Optional.of(timeline);
+                this.autoTaskActionTicks = Optional.of(ticks.subscribe("Auto task action",
+                        autoTaskAction.getInterval(), Platform::runLater, autoTaskAction::run));
             }
 
         } catch (Exception e) {
@@ -438,68 +557,199 @@ public class ChronoTask extends Application implements AutoTaskAction.Destinatio
     }
 
 
-    public static String formatDuration(java.time.Duration duration) {
-        long hours = duration.toHours();
-        long minutes = duration.toMinutes() % 60;
-        long seconds = duration.toSeconds() % 60;
+    /**
+     * Start the HTTP API if {@code -Dchrono.task.http.port} is set, it serves a copy of the tasks published
+     * after each change.
+     */
+    private void initHttpApi() {
+        Integer port = Integer.getInteger("chrono.task.http.port");
+        if (port == null) {
+            return;
+        }
+        try {
+            httpApi = new HttpApi(durationManager, jacksonMapper, port);
+        } catch (IOException e) {
+            log.error("Can't start the HTTP API on port {}.", port, e);
+            return;
+        }
+        httpApi.setOnTrack(this::track, Platform::runLater);
+        httpApi.setOnPause(() -> setPaused(true), () -> setPaused(false), Platform::runLater);
+        publishTasks();
+        taskTableView.getAllItems().addListener((ListChangeListener<Task>) change -> publishTasks());
+        httpApi.start();
+    }
 
-        StringBuilder sb = new StringBuilder();
+    /**
+     * Track the tasks of the path, from a main task down, by selecting them as the user would: the main task in
+     * the task table, its sub-task in the todo table. Nothing is selected for an empty path.
+     */
+    private void track(List<Task> path) {
+        if (path.isEmpty()) {
+            todoTableView.getSelectionModel().clearSelection();
+            taskTableView.getSelectionModel().clearSelection();
+        } else {
+            if (!taskTableView.getAllItems().contains(path.get(0))) {
+                throw new IllegalStateException("Task '" + path.get(0).getId() + "' removed.");
+            }
+            select(taskTableView, path.get(0));
+            todoTableView.getSelectionModel().clearSelection();
+            if (path.size() > 1) {
+                select(todoTableView, path.get(1));
+            }
+            // The tables only show two levels of tasks
+            path.stream().skip(2).forEach(durationManager::addTasks);
+        }
+        // The deeper tasks tracked before
+        durationManager.getTasks().stream().filter(task -> !path.contains(task)).forEach(durationManager::removeTasks);
+    }
+
+    private static void select(TaskTableView table, Task task) {
+        if (!table.getItems().contains(task)) {
+            throw new IllegalStateException("Task '" + task.getId() + "' is hidden by the filter.");
+        }
+        table.getSelectionModel().select(task);
+        table.scrollTo(task);
+    }
 
-        sb.append(hours < 10 ? "0" : "").append(hours).append(":");
-        sb.append(minutes < 10 ? "0" : "").append(minutes).append(":");
-        sb.append(seconds < 10 ? "0" : "").append(seconds);
+    /**
+     * Synchronize the time and the tasks with the other devices if {@code -Dchrono.task.sync.dir} is set, every
+     * minute and at exit.
+     */
+    private void initSync(List<Task> tasks) {
+        Path sharedDir = SyncService.sharedDir();
+        if (sharedDir == null) {
+            return;
+        }
+        try {
+            sync = new SyncService(SAVE_DIR, sharedDir, SyncService.device(SAVE_DIR), jacksonMapper, durationManager,
+                    Platform::runLater);
+            sync.setListener((parent, task, created) -> {
+                if (created && parent == null) {
+                    taskTableView.getAllItems().add(task);
+                }
+                persistence.task(parent, task);
+                if (parent == null) {
+                    durationManager.getRollups().addMainTask(task);
+                }
+                durationManager.getRollups().updateTags(parent, task);
+                searchIndex.update(parent, task);
+                taskTableView.refresh();
+                todoTableView.refresh();
+                publishTasks();
+            });
+            sync.start(tasks);
+        } catch (IOException e) {
+            log.error("Can't synchronize with {}.", sharedDir, e);
+            sync = null;
+            return;
+        }
+        ticks.subscribe("Synchronization", java.time.Duration.ofMinutes(1), syncExecutor, sync::sync);
+        syncExecutor.execute(sync::sync);
+    }
 
-        return sb.toString();
+    private void publishTasks() {
+        if (httpApi != null) {
+            httpApi.publish(taskTableView.getAllItems());
+        }
+    }
+
+    /**
+     * Index the tasks for the filter, first without their notes so the filter is usable right away, then with
+     * their notes in the background.
+     */
+    private void initSearchIndex(List<Task> tasks) {
+        this.searchIndex = new TaskSearchIndex(persistence.getNotesStore(), searchIndexExecutor);
+        List<Task> toIndex = List.copyOf(tasks);
+        searchIndex.index(toIndex, false);
+        taskTableView.setSearchIndex(searchIndex);
+        // On the executor of the updates, so an update done meanwhile isn't overwritten
+        searchIndexExecutor.execute(() -> {
+            long start = System.nanoTime();
+            searchIndex.index(toIndex, true);
+            log.info("Notes of {} tasks indexed in {} ms.", toIndex.size(), (System.nanoTime() - start) / 1_000_000);
+            Platform.runLater(() -> {
+                if (!taskTableView.getFilterProperty().get().isBlank()) {
+                    taskTableView.refreshFilter();
+                }
+            });
+        });
+    }
+
+    /**
+     * The gauges of the size of the data, counted every minute on the UI thread, which owns the tasks.
+     */
+    private void initMetrics() {
+        AtomicLong taskCount = new AtomicLong();
+        AtomicLong historyEntries = new AtomicLong();
+        Metrics.gauge("tasks.count", taskCount::get);
+        Metrics.gauge("history.entries", historyEntries::get);
+        Runnable count = () -> {
+            List<Task> all = new ArrayList<>(taskTableView.getAllItems());
+            long entries = 0;
+            for (int i = 0; i < all.size(); i++) {
+                Task task = all.get(i);
+                synchronized (durationManager.getRollups()) {
+                    entries += task.getDurationsByDate().size();
+                }
+                all.addAll(task.getSubTasks());
+            }
+            taskCount.set(all.size());
+            historyEntries.set(entries);
+        };
+        count.run();
+        ticks.subscribe("Metrics", java.time.Duration.ofMinutes(1), Platform::runLater, count);
+    }
+
+    /**
+     * With {@code -Dchrono.task.jfr=<file>}, record the JFR events of the application into the file, written at exit.
+     */
+    private void initRecording() {
+        String file = System.getProperty("chrono.task.jfr");
+        if (file == null) {
+            return;
+        }
+        try {
+            JfrEvents.startRecording(Path.of(file));
+            log.info("Flight recording to {}.", file);
+        } catch (IOException | IllegalStateException e) {
+            log.warn("Can't start the flight recording.", e);
+        }
     }
 
     private void initSerialization() {
         this.jacksonMapper = JsonMapper.builder()
                 .findAndAddModules()
                 .build();
+        this.persistence = new PersistenceService(SAVE_DIR, this.jacksonMapper);
     }
 
     @Override
     public void stop() throws Exception {
+        if (httpApi != null) {
+            httpApi.stop();
+        }
         if (durationManager != null) {
             durationManager.stop();
         }
+        ticks.stop();
+        if (sync != null) {
+            syncExecutor.shutdown();
+            sync.sync();
+        }
 
-        store(taskTableView.getAllItems());
-
-        super.stop();
-    }
-
-    @SneakyThrows
-    private void store(List<Task> tasks) {
-        tasks = removeInvalidTasks(tasks);
-        String dayOfYear = String.valueOf(LocalDate.now().getDayOfYear());
-        Files.createDirectories(Paths.get(SAVE_DIR));
-        try (FileWriter file = new FileWriter(SAVE_FILE)) {
-            this.jacksonMapper.writerWithDefaultPrettyPrinter().writeValue(file, tasks);
-            log.info("Saving tasks to {}.", SAVE_FILE);
+        if (notesEditor != null) {
+            // The notes typed since the last pause
+            notesEditor.save();
         }
-        Files.copy(Paths.get(SAVE_FILE), Paths.get(SAVE_FILE + "." + dayOfYear), StandardCopyOption.REPLACE_EXISTING);
-    }
+        persistence.close(() -> durationManager.snapshot(taskTableView.getAllItems()));
+        log.info("Metrics:\n{}", Metrics.describe());
 
-    private List<Task> removeInvalidTasks(List<Task> tasks) {
-        return tasks.stream()
-                .filter(Task::isValid)
-                .peek(task -> task.setSubTasks(removeInvalidTasks(task.getSubTasks())))
-                .toList();
+        super.stop();
     }
 
     @SneakyThrows
     private List<Task> load() {
-        // Backup at start
-        String dayOfYear = String.valueOf(LocalDate.now().getDayOfYear());
-        if (Files.exists(Path.of(SAVE_FILE), LinkOption.NOFOLLOW_LINKS)) {
-            Files.copy(Paths.get(SAVE_FILE), Paths.get(SAVE_FILE + ".start." + dayOfYear), StandardCopyOption.REPLACE_EXISTING);
-        }
-
-        if (Files.exists(Path.of(SAVE_FILE), LinkOption.NOFOLLOW_LINKS)) {
-            return this.jacksonMapper.readValue(Paths.get(SAVE_FILE).toFile(), this.jacksonMapper.getTypeFactory().constructCollectionType(List.class, Task.class));
-        }
-        return new ArrayList<>();
+        return persistence.load();
     }
 
     public static void main(String[] args) {
@@ -0,0 +1,339 @@
+package com.github.ypiel.chronotask;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.github.ypiel.chronotask.business.DurationManager;
+import com.github.ypiel.chronotask.business.IntervalLog;
+import com.github.ypiel.chronotask.business.Period;
+import com.github.ypiel.chronotask.business.PersistenceService;
+import com.github.ypiel.chronotask.business.SyncService;
+import com.github.ypiel.chronotask.business.TaskExporter;
+import com.github.ypiel.chronotask.business.TaskLookup;
+import com.github.ypiel.chronotask.business.TickScheduler;
+import com.github.ypiel.chronotask.business.TimeRollups;
+import com.github.ypiel.chronotask.model.Task;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Set;
+
+/**
+ * Track and export the time from the command line, without JavaFX.
+ * <p>
+ * The same tasks, persistence and export are used as by the application, only the tracking differs: as each
+ * command is a new process, the tracked task and the time it is tracked since are kept in
+ * {@code chrono-task.session}, and the interval is added to the task when it is paused, stopped or replaced. As
+ * when a todo is selected in the application, the time of a sub-task is also added to its parents.
+ * The commands must not be used on the directory of a running application, each would overwrite the other's
+ * changes.
+ * <p>
+ * Nothing logs to the standard output, it is kept for the export and the status.
+ */
+public class ChronoTaskCli {
+
+    private static final Set<String> COMMANDS = Set.of("start", "pause", "stop", "status", "export", "help");
+
+    private static final String USAGE = """
+            Usage: chrono-task <command>
+              start [task]   track the task, given by its id or the start of its uid, or the paused one
+              pause          stop tracking, 'start' resumes the same task
+              stop           stop tracking
+              status         the tracked task and the time spent today and this week
+              export [day|week|month|year] [--date yyyy-mm-dd] [--format text|csv|json_lines|markdown]
+                     [--minimum minutes] [--summary] [--by-tag]
+                             write the time spent during the period to the standard output
+            The tasks are in the directory given by -Dchrono.task.dir (~/chrono-task by default), they are
+            synchronized with the directory given by -Dchrono.task.sync.dir if any.""";
+
+    private final Path sessionFile;
+    private final PersistenceService persistence;
+    private final TimeRollups rollups = new TimeRollups();
+    private final DurationManager durationManager;
+    private final Path saveDir;
+    private final ObjectMapper mapper = JsonMapper.builder().findAndAddModules().build();
+    private SyncService sync;
+    private List<Task> tasks;
+
+    public static boolean isCommand(String arg) {
+        return COMMANDS.contains(arg);
+    }
+
+    public static void main(String[] args) {
+        if (System.getProperty("log4j.configurationFile") == null) {
+            System.setProperty("log4j.configurationFile", "log4j2-cli.xml");
+        }
+        if (args.length == 0 || !isCommand(args[0]) || args[0].equals("help")) {
+            System.out.println(USAGE);
+            System.exit(args.length == 0 || !isCommand(args[0]) ? 2 : 0);
+        }
+
+        int status;
+        try {
+            status = new ChronoTaskCli(PersistenceService.saveDir()).run(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            status = 2;
+        } catch (IOException | RuntimeException e) {
+            System.err.println("chrono-task: " + e);
+            status = 1;
+        }
+        System.exit(status);
+    }
+
+    ChronoTaskCli(Path saveDir) {
+        this.saveDir = saveDir;
+        this.sessionFile = saveDir.resolve("chrono-task.session");
+        this.persistence = new PersistenceService(saveDir, mapper);
+        this.persistence.setBackups(false);
+        this.durationManager = new DurationManager(rollups, DurationManager.Tracking.INTERVAL, new TickScheduler());
+        this.durationManager.setIntervalLog(new IntervalLog(saveDir.resolve("chrono-task.intervals")));
+        this.durationManager.addListener(new DurationManager.DurationManagerListener() {
+            @Override
+            public void onTaskDurationUpdate(DurationManager durationManager, Task task, long epochDay, long millis) {
+                persistence.duration(task, epochDay, millis);
+                if (sync != null) {
+                    sync.duration(task, epochDay);
+                }
+            }
+        });
+    }
+
+    int run(String[] args) throws IOException {
+        tasks = persistence.load();
+        initSync();
+        try {
+            return switch (args[0]) {
+                case "start" -> start(args.length > 1 ? String.join(" ", List.of(args).subList(1, args.length)) : null);
+                case "pause" -> pause();
+                case "stop" -> stop();
+                case "status" -> status();
+                case "export" -> export(args);
+                default -> throw new IllegalArgumentException(USAGE);
+            };
+        } finally {
+            if (sync != null) {
+                sync.sync();
+            }
+            persistence.close(() -> tasks);
+        }
+    }
+
+    /**
+     * Receive the changes of the other devices before the command, and send the ones of the command after it.
+     */
+    private void initSync() throws IOException {
+        Path sharedDir = SyncService.sharedDir();
+        if (sharedDir == null) {
+            return;
+        }
+        sync = new SyncService(saveDir, sharedDir, SyncService.device(saveDir), mapper,
+                durationManager, Runnable::run);
+        sync.setListener((parent, task, created) -> {
+            if (created && parent == null) {
+                tasks.add(task);
+            }
+            persistence.task(parent, task);
+        });
+        sync.start(tasks);
+        sync.sync();
+    }
+
+    private int start(String query) throws IOException {
+        Session session = Session.read(sessionFile);
+        long now = System.currentTimeMillis();
+        Task task;
+        if (query == null) {
+            if (session == null) {
+                throw new IllegalArgumentException("No paused task, give the task to start.");
+            }
+            task = TaskLookup.find(tasks, session.uid());
+        } else {
+            task = TaskLookup.find(tasks, query);
+        }
+        if (session != null && session.isTracking()) {
+            if (session.uid().equals(task.getUid())) {
+                System.out.println("Already tracking " + TaskLookup.describe(task) + ".");
+                return 0;
+            }
+            addInterval(session, now);
+        }
+        new Session(task.getUid(), now).write(sessionFile);
+        System.out.println("Tracking " + TaskLookup.describe(task) + ".");
+        return 0;
+    }
+
+    private int pause() throws IOException {
+        Session session = Session.read(sessionFile);
+        if (session == null || !session.isTracking()) {
+            System.out.println("Not tracking.");
+            return 0;
+        }
+        Task task = addInterval(session, System.currentTimeMillis());
+        new Session(session.uid(), Session.PAUSED).write(sessionFile);
+        System.out.println("Paused " + TaskLookup.describe(task) + ".");
+        return 0;
+    }
+
+    private int stop() throws IOException {
+        Session session = Session.read(sessionFile);
+        if (session == null) {
+            System.out.println("Not tracking.");
+            return 0;
+        }
+        if (session.isTracking()) {
+            Task task = addInterval(session, System.currentTimeMillis());
+            System.out.println("Stopped " + TaskLookup.describe(task) + ".");
+        }
+        Files.delete(sessionFile);
+        return 0;
+    }
+
+    private int status() throws IOException {
+        Session session = Session.read(sessionFile);
+        long now = System.currentTimeMillis();
+        LocalDate today = LocalDate.now();
+        long openToday = 0;
+        long openWeek = 0;
+        if (session == null) {
+            System.out.println("Not tracking.");
+        } else {
+            Task task = TaskLookup.find(tasks, session.uid());
+            if (session.isTracking()) {
+                LocalTime since = Instant.ofEpochMilli(session.since()).atZone(ZoneId.systemDefault()).toLocalTime();
+                System.out.println("Tracking " + TaskLookup.describe(task) + " since " + since.truncatedTo(ChronoUnit.SECONDS)
+                        + " (" + TaskExporter.formatDuration(Duration.ofMillis(now - session.since())) + ")");
+                openToday = overlap(session.since(), now, Period.DAY, today);
+                openWeek = overlap(session.since(), now, Period.WEEK, today);
+            } else {
+                System.out.println("Paused " + TaskLookup.describe(task));
+            }
+        }
+        System.out.println("Today: " + TaskExporter.formatDuration(total(Period.DAY, today).plusMillis(openToday))
+                + " - Week: " + TaskExporter.formatDuration(total(Period.WEEK, today).plusMillis(openWeek)));
+        return 0;
+    }
+
+    private int export(String[] args) throws IOException {
+        Period period = Period.DAY;
+        LocalDate date = LocalDate.now();
+        TaskExporter.Format format = TaskExporter.Format.TEXT;
+        long minimum = 2;
+        boolean detailed = true;
+        boolean byTag = false;
+        for (int i = 1; i < args.length; i++) {
+            switch (args[i]) {
+                case "--date" -> date = LocalDate.parse(value(args, ++i));
+                case "--format" -> format = TaskExporter.Format.valueOf(value(args, ++i).toUpperCase(Locale.ROOT));
+                case "--minimum" -> minimum = Long.parseLong(value(args, ++i));
+                case "--summary" -> detailed = false;
+                case "--by-tag" -> byTag = true;
+                default -> period = Period.valueOf(args[i].toUpperCase(Locale.ROOT));
+            }
+        }
+
+        // The time tracked so far is exported and saved, the session goes on from now
+        Session session = Session.read(sessionFile);
+        if (session != null && session.isTracking()) {
+            long now = System.currentTimeMillis();
+            addInterval(session, now);
+            new Session(session.uid(), now).write(sessionFile);
+        }
+
+        TaskExporter exporter = new TaskExporter(format, Duration.ofMinutes(minimum), detailed);
+        Writer out = new OutputStreamWriter(System.out, StandardCharsets.UTF_8);
+        if (byTag) {
+            rollups.load(tasks);
+            exporter.exportTags(rollups.getTags(), period.from(date), period.to(date), out);
+        } else {
+            exporter.export(tasks, period.from(date), period.to(date), out);
+        }
+        out.flush();
+        return 0;
+    }
+
+    /**
+     * Add the time tracked by the session to its task and the parents of the task.
+     */
+    private Task addInterval(Session session, long now) {
+        Task task = TaskLookup.find(tasks, session.uid());
+        for (Task t : TaskLookup.path(tasks, task)) {
+            durationManager.addInterval(t, session.since(), now);
+        }
+        return task;
+    }
+
+    /**
+     * @return the time spent on the main tasks during the period, summed from their histories: computing all
+     * the rollups isn't worth it for two values.
+     */
+    private Duration total(Period period, LocalDate date) {
+        long from = period.from(date).toEpochDay();
+        long to = period.to(date).toEpochDay();
+        long millis = 0;
+        for (Task task : tasks) {
+            millis += task.getDurationsByDate().sumMillis(from, to);
+        }
+        return Duration.ofMillis(millis);
+    }
+
+    private static long overlap(long start, long end, Period period, LocalDate date) {
+        long from = period.from(date).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        long to = period.to(date).plusDays(1).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        return Math.max(0, Math.min(end, to) - Math.max(start, from));
+    }
+
+    private static String value(String[] args, int i) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException("Missing value of " + args[i - 1] + ".\n" + USAGE);
+        }
+        return args[i];
+    }
+
+    /**
+     * The tracked task and the time it is tracked since, {@link #PAUSED} if it is paused.
+     */
+    private record Session(String uid, long since) {
+
+        static final long PAUSED = -1;
+
+        boolean isTracking() {
+            return since != PAUSED;
+        }
+
+        static Session read(Path file) throws IOException {
+            if (!Files.exists(file)) {
+                return null;
+            }
+            Properties properties = new Properties();
+            try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                properties.load(reader);
+            }
+            return new Session(properties.getProperty("uid"), Long.parseLong(properties.getProperty("since", "-1")));
+        }
+
+        void write(Path file) throws IOException {
+            Properties properties = new Properties();
+            properties.setProperty("uid", uid);
+            properties.setProperty("since", Long.toString(since));
+            Files.createDirectories(file.getParent());
+            try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+                properties.store(writer, "chrono-task command line session");
+            }
+        }
+    }
+
+}
@@ -1,9 +1,14 @@
-package com.github.ypiel.chronotask;
-
-public class Main {
-
-    public static void main(String[] args) {
-        ChronoTask.main(args);
-    }
-
-}
+package com.github.ypiel.chronotask;
+
+public class Main {
+
+    public static void main(String[] args) {
+        // The commands run without JavaFX, the application isn't even loaded
+        if (args.length > 0 && ChronoTaskCli.isCommand(args[0])) {
+            ChronoTaskCli.main(args);
+        } else {
+            ChronoTask.main(args);
+        }
+    }
+
+}
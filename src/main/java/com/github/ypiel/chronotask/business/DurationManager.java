@@ -1,104 +1,522 @@
 package com.github.ypiel.chronotask.business;
 
+import com.github.ypiel.chronotask.model.DurationHistory;
 import com.github.ypiel.chronotask.model.Task;
 
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalDate;
+import java.time.ZoneId;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Optional;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.TimeUnit;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import lombok.extern.slf4j.Slf4j;
 
+/**
+ * Track the time spent on the selected tasks.
+ * <p>
+ * By default, the time elapsed since the previous tick is added to the tracked tasks every second, on the
+ * {@link TickScheduler}, the ticks being suspended while paused. With
+ * {@code -Dchrono.task.tracking=interval}, nothing runs while tracking: the start of each task is recorded when it
+ * is added or resumed, and the interval is added to the task when it is removed, paused or stopped, split at
+ * midnight and written to the {@link IntervalLog}. The time of the intervals still open is only computed when
+ * asked for, by {@link #getLiveMillis(Task, long)} and {@link #getLiveTotal(Period, LocalDate)}.
+ * <p>
+ * The tracked tasks are published as an immutable snapshot, replaced when a task is added or removed, so they
+ * are iterated from any thread without locking. Each tracked task has the time up to which it has been counted
+ * in an atomic: the ticks, the checkpoints and the removal of the task move it forward with a compare-and-set,
+ * so every millisecond is counted once whatever the threads involved. The listeners are called on the executor
+ * they have been added with.
+ */
 @Slf4j
 public class DurationManager {
 
-    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
-    private ScheduledFuture<?> scheduledFuture;
-    private final List<Task> tasks = new ArrayList<>();
+    public enum Tracking {
+        TICK, INTERVAL;
+
+        public static Tracking fromProperty() {
+            return valueOf(System.getProperty("chrono.task.tracking", "tick").toUpperCase(Locale.ROOT));
+        }
+    }
+
+    // Time counted up to of a task whose time isn't counted: paused, stopped or removed
+    private static final long CLOSED = Long.MIN_VALUE;
+
+    private final TickScheduler scheduler;
+    private volatile TickScheduler.Subscription ticks;
+    private volatile TickScheduler.Subscription intervalTouches;
+    private final AtomicReference<List<Tracked>> tracked = new AtomicReference<>(List.of());
     private final AtomicBoolean isPaused = new AtomicBoolean(false);
+    private volatile boolean started = false;
 
-    private final AtomicLong lastTime = new AtomicLong(0);
+    // Today and its bounds, for the ticks
+    private volatile Day currentDay = new Day(0, 0, 0);
 
-    private final List<DurationManagerListener> listeners = new ArrayList<>();
+    private final List<Registration> listeners = new CopyOnWriteArrayList<>();
+    private final TimeRollups rollups;
 
+    private final Tracking tracking;
+    private volatile IntervalLog intervalLog;
 
-    public DurationManager() {
+
+    public DurationManager(TickScheduler scheduler) {
+        this(new TimeRollups(), Tracking.fromProperty(), scheduler);
+    }
+
+    public DurationManager(TimeRollups rollups, Tracking tracking, TickScheduler scheduler) {
+        this.rollups = rollups;
+        this.tracking = tracking;
+        this.scheduler = scheduler;
+        Metrics.gauge("tracking.tasks", () -> tracked.get().size());
     }
 
+    public Tracking getTracking() {
+        return tracking;
+    }
+
+    public void setIntervalLog(IntervalLog intervalLog) {
+        this.intervalLog = intervalLog;
+    }
+
+    public TimeRollups getRollups() {
+        return rollups;
+    }
+
+    /**
+     * Call the listener on the thread sending the events, the tracking thread for the durations.
+     */
     public void addListener(DurationManagerListener listener) {
-        listeners.add(listener);
+        addListener(listener, null);
+    }
+
+    /**
+     * Call the listener on the given executor, e.g. {@code Platform::runLater} for the UI.
+     */
+    public void addListener(DurationManagerListener listener, Executor executor) {
+        listeners.add(new Registration(listener, executor));
+    }
+
+    public boolean isPaused() {
+        return isPaused.get();
     }
 
     public List<Task> getTasks() {
-        return Collections.unmodifiableList(this.tasks);
+        return tracked.get().stream().map(Tracked::task).toList();
     }
 
     public void addTasks(Task task) {
-        this.tasks.add(task);
-        listeners.forEach(l -> l.onTaskDurationAddTask(this, task));
+        long now = System.currentTimeMillis();
+        List<Tracked> previous = tracked.getAndUpdate(current -> {
+            if (indexOf(current, task) >= 0) {
+                return current;
+            }
+            List<Tracked> next = new ArrayList<>(current);
+            next.add(new Tracked(task, new AtomicLong(started && !isPaused.get() ? now : CLOSED)));
+            return List.copyOf(next);
+        });
+        if (indexOf(previous, task) < 0 && started) {
+            showToday(task);
+            Tracked t = find(task);
+            if (t != null) {
+                logOpen(t.task(), t.since().get());
+            }
+        }
+        fire(l -> l.onTaskDurationAddTask(this, task));
     }
 
     public void removeTasks(Task task) {
-        this.tasks.remove(task);
-        listeners.forEach(l -> l.onTaskDurationRemoveTask(this, task));
+        long now = System.currentTimeMillis();
+        List<Tracked> previous = tracked.getAndUpdate(current -> {
+            int index = indexOf(current, task);
+            if (index < 0) {
+                return current;
+            }
+            List<Tracked> next = new ArrayList<>(current);
+            next.remove(index);
+            return List.copyOf(next);
+        });
+        int index = indexOf(previous, task);
+        if (index >= 0) {
+            close(previous.get(index), now);
+        }
+        fire(l -> l.onTaskDurationRemoveTask(this, task));
+    }
+
+    public void setDuration(Task task, LocalDate date, Duration duration) {
+        long epochDay = date.toEpochDay();
+        long millis = duration.toMillis();
+        // The time spent before is replaced by the given duration
+        Tracked t = find(task);
+        if (t != null) {
+            advance(t.since(), System.currentTimeMillis());
+        }
+        synchronized (rollups) {
+            long previous = task.getDurationsByDate().getMillis(epochDay);
+            task.getDurationsByDate().setMillis(epochDay, millis);
+            rollups.add(task, epochDay, millis - previous);
+        }
+        fireUpdate(task, epochDay, millis);
     }
 
     public void start() {
-        lastTime.set(System.currentTimeMillis());
-
-        scheduledFuture = scheduler.scheduleAtFixedRate(() -> {
-            if (!isPaused.get()) {
-                LocalDate now = LocalDate.now();
-
-                long current = System.currentTimeMillis();
-                for (Task t : tasks) {
-                    List<Task.DurationByDate> durationsByDate = t.getDurationsByDate();
-                    Optional<Task.DurationByDate> durationOfTodayOpt = durationsByDate.stream().filter(d -> d.getDate().equals(now)).findAny();
-
-                    Task.DurationByDate durationOfToday;
-                    if (!durationOfTodayOpt.isPresent()) {
-                        durationOfToday = new Task.DurationByDate();
-                        durationsByDate.add(0, durationOfToday);
-                    } else {
-                        durationOfToday = durationOfTodayOpt.get();
+        started = true;
+        openAll(System.currentTimeMillis());
+        if (tracking == Tracking.TICK) {
+            Metrics.Timer tickTimer = Metrics.timer("tracking.tick");
+            // How late the tick runs after the second it is due
+            Metrics.Timer drift = Metrics.timer("tracking.tick.drift");
+            ticks = scheduler.subscribe("Duration ticks", Duration.ofSeconds(1), () -> {
+                if (!isPaused.get()) {
+                    JfrEvents.TickEvent event = new JfrEvents.TickEvent();
+                    event.begin();
+                    long start = tickTimer.start();
+                    long current = System.currentTimeMillis();
+                    drift.record((current % 1000) * 1_000_000);
+                    int touched = tick(current);
+                    tickTimer.stop(start);
+                    if (event.shouldCommit()) {
+                        event.touched = touched;
+                        event.drift = current % 1000;
+                        event.commit();
                     }
-
-
-                    long millisToAdd = current - lastTime.get();
-                    durationOfToday.setDuration(durationOfToday.getDuration().plusMillis(millisToAdd));
-                    log.debug("Task {} + {}ms => duration: {}", t.getId(), millisToAdd,durationOfToday.getDuration());
                 }
-                lastTime.set(current);
+            });
+        } else {
+            // So an interval left open by a crash is known to have lasted up to the last minute
+            intervalTouches = scheduler.subscribe("Interval log", Duration.ofMinutes(1), () -> {
+                IntervalLog intervals = intervalLog;
+                long now = System.currentTimeMillis();
+                if (intervals != null && tracked.get().stream().anyMatch(t -> t.since().get() != CLOSED)) {
+                    intervals.touch(now);
+                }
+            });
+        }
+        fire(l -> l.onTaskDurationStart(this));
+    }
+
+    /**
+     * Add the time elapsed since it was last counted to the tracked tasks.
+     * Nothing is allocated here unless the day changed, it runs every second all day long.
+     *
+     * @return the number of tasks the time was added to.
+     */
+    int tick(long current) {
+        List<Tracked> snapshot = tracked.get();
+        int touched = 0;
+        for (int i = 0; i < snapshot.size(); i++) {
+            Tracked t = snapshot.get(i);
+            long from = advance(t.since(), current);
+            if (from < current) {
+                record(t.task(), from, current);
+                touched++;
             }
-        }, 0, 1, TimeUnit.SECONDS);
-        listeners.forEach(l -> l.onTaskDurationStart(this));
+        }
+        return touched;
     }
 
     public void pause() {
         isPaused.set(true);
-        listeners.forEach(l -> l.onTaskDurationPause(this));
+        TickScheduler.Subscription subscription = ticks;
+        if (subscription != null) {
+            subscription.suspend();
+        }
+        closeAll(System.currentTimeMillis());
+        fire(l -> l.onTaskDurationPause(this));
     }
 
     public void resume() {
-        lastTime.set(System.currentTimeMillis());
         isPaused.set(false);
-        listeners.forEach(l -> l.onTaskDurationResume(this));
+        TickScheduler.Subscription subscription = ticks;
+        if (subscription != null) {
+            subscription.resume();
+        }
+        openAll(System.currentTimeMillis());
+        fire(l -> l.onTaskDurationResume(this));
     }
 
     public void stop() {
-        if (scheduledFuture != null) {
-            scheduledFuture.cancel(true);
+        TickScheduler.Subscription subscription = ticks;
+        if (subscription != null) {
+            subscription.cancel();
+        }
+        TickScheduler.Subscription touches = intervalTouches;
+        if (touches != null) {
+            touches.cancel();
+        }
+        started = false;
+        closeAll(System.currentTimeMillis());
+        IntervalLog log = intervalLog;
+        if (log != null) {
+            log.close();
+        }
+        fire(l -> l.onTaskDurationStop(this));
+    }
+
+    /**
+     * Add an interval tracked elsewhere, e.g. by the command line, to the durations of the task.
+     */
+    public void addInterval(Task task, long start, long end) {
+        record(task, start, end);
+    }
+
+    /**
+     * Add to the tasks the intervals of the interval log left open when the application was killed, up to the
+     * last time they were known to be open, and close them.
+     */
+    public void recoverIntervals(List<Task> tasks) throws IOException {
+        IntervalLog intervals = intervalLog;
+        if (intervals == null) {
+            return;
+        }
+        Map<String, Task> byUid = new HashMap<>();
+        index(tasks, byUid);
+        for (IntervalLog.Interval interval : intervals.unclosed()) {
+            Task task = byUid.get(interval.uid());
+            if (task == null) {
+                log.warn("Interval left open of unknown task {}.", interval.uid());
+                continue;
+            }
+            record(task, interval.start(), interval.end());
+            intervals.close(task, interval.end());
+            log.info("Interval of {} left open recovered: {} ms.", task.getId(), interval.end() - interval.start());
+        }
+    }
+
+    /**
+     * Add time counted elsewhere, e.g. on another device, to a day of the task. The time is negative when it
+     * was removed there.
+     */
+    public void addMillis(Task task, long epochDay, long toAdd) {
+        long millis;
+        synchronized (rollups) {
+            millis = task.getDurationsByDate().addMillis(epochDay, toAdd);
+            rollups.add(task, epochDay, toAdd);
+        }
+        fireUpdate(task, epochDay, millis);
+    }
+
+    /**
+     * Add the time not counted yet to the tasks, so their durations are up to date before they are saved or
+     * exported. With ticks, it is at most one second.
+     */
+    public void checkpoint() {
+        tick(System.currentTimeMillis());
+    }
+
+    /**
+     * @return a copy of the valid tasks and their sub-tasks, to read them on another thread while they are
+     * tracked, e.g. to save or export them. Called on the thread owning the tasks. The histories are copied under
+     * the lock of the rollups one at a time, so the tracking is only blocked for the copy of one history.
+     */
+    public List<Task> snapshot(List<Task> tasks) {
+        List<Task> copies = new ArrayList<>(tasks.size());
+        for (Task task : tasks) {
+            if (task.isValid()) {
+                DurationHistory durations;
+                synchronized (rollups) {
+                    durations = task.getDurationsByDate().copy();
+                }
+                copies.add(new Task(task.getUid(), task.getOrder(), task.getId(), task.getShortDescription(),
+                        task.getNotes(), task.getNotesRef(), task.getStatus(), List.copyOf(task.getTags()),
+                        snapshot(task.getSubTasks()), durations, task.getAutoTaskAction()));
+            }
+        }
+        return copies;
+    }
+
+    /**
+     * @return the time spent on the task during the given day, including the time not counted yet.
+     */
+    public long getLiveMillis(Task task, long epochDay) {
+        long millis;
+        synchronized (rollups) {
+            millis = task.getDurationsByDate().getMillis(epochDay);
+        }
+        Tracked t = find(task);
+        long since = t == null ? CLOSED : t.since().get();
+        if (since != CLOSED) {
+            LocalDate day = LocalDate.ofEpochDay(epochDay);
+            millis += overlap(since, System.currentTimeMillis(), startOf(day), startOf(day.plusDays(1)));
+        }
+        return millis;
+    }
+
+    /**
+     * @return the time spent on all the main tasks during the period containing the given date, including the
+     * time not counted yet.
+     */
+    public Duration getLiveTotal(Period period, LocalDate date) {
+        long millis = rollups.get(period, date).toMillis();
+        long from = startOf(period.from(date));
+        long to = startOf(period.to(date).plusDays(1));
+        long now = System.currentTimeMillis();
+        for (Tracked t : tracked.get()) {
+            long since = t.since().get();
+            if (since != CLOSED && rollups.isMainTask(t.task())) {
+                millis += overlap(since, now, from, to);
+            }
+        }
+        return Duration.ofMillis(millis);
+    }
+
+    private void openAll(long now) {
+        for (Tracked t : tracked.get()) {
+            if (t.since().compareAndSet(CLOSED, now)) {
+                showToday(t.task());
+                logOpen(t.task(), now);
+            }
+        }
+    }
+
+    private void closeAll(long now) {
+        for (Tracked t : tracked.get()) {
+            close(t, now);
+        }
+    }
+
+    private void close(Tracked t, long now) {
+        long from = t.since().getAndSet(CLOSED);
+        if (from != CLOSED && from < now) {
+            record(t.task(), from, now);
+        }
+        IntervalLog intervals = intervalLog;
+        if (from != CLOSED && intervals != null) {
+            intervals.close(t.task(), Math.max(from, now));
+        }
+    }
+
+    private void logOpen(Task task, long start) {
+        IntervalLog intervals = intervalLog;
+        if (start != CLOSED && intervals != null) {
+            intervals.open(task, start);
+        }
+    }
+
+    private static void index(List<Task> tasks, Map<String, Task> byUid) {
+        for (Task task : tasks) {
+            byUid.put(task.getUid(), task);
+            index(task.getSubTasks(), byUid);
+        }
+    }
+
+    /**
+     * Add an interval to the durations of the task, one part per day.
+     */
+    private void record(Task task, long start, long end) {
+        while (start < end) {
+            Day day = day(start);
+            long partEnd = Math.min(end, day.end());
+            long toAdd = partEnd - start;
+            long millis;
+            synchronized (rollups) {
+                millis = task.getDurationsByDate().addMillis(day.epochDay(), toAdd);
+                rollups.add(task, day.epochDay(), toAdd);
+            }
+            if (log.isDebugEnabled()) {
+                log.debug("Task {} + {}ms => duration: {}ms", task.getId(), toAdd, millis);
+            }
+            IntervalLog intervals = intervalLog;
+            if (intervals != null) {
+                intervals.append(task, start, partEnd);
+            }
+            fireUpdate(task, day.epochDay(), millis);
+            start = partEnd;
+        }
+    }
+
+    /**
+     * So the day being tracked is shown even when the time is only added when the interval is closed.
+     */
+    private void showToday(Task task) {
+        long epochDay = day(System.currentTimeMillis()).epochDay();
+        synchronized (rollups) {
+            task.getDurationsByDate().addMillis(epochDay, 0);
+        }
+    }
+
+    private Day day(long time) {
+        Day day = currentDay;
+        if (time >= day.start() && time < day.end()) {
+            return day;
+        }
+        LocalDate date = Instant.ofEpochMilli(time).atZone(ZoneId.systemDefault()).toLocalDate();
+        day = new Day(date.toEpochDay(), startOf(date), startOf(date.plusDays(1)));
+        if (date.equals(LocalDate.now())) {
+            currentDay = day;
+        }
+        return day;
+    }
+
+    private Tracked find(Task task) {
+        List<Tracked> snapshot = tracked.get();
+        int index = indexOf(snapshot, task);
+        return index < 0 ? null : snapshot.get(index);
+    }
+
+    private static int indexOf(List<Tracked> snapshot, Task task) {
+        for (int i = 0; i < snapshot.size(); i++) {
+            if (snapshot.get(i).task() == task) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Move the time counted up to forward to {@code to}.
+     *
+     * @return the previous time counted up to, {@code to} if there is nothing to count.
+     */
+    private static long advance(AtomicLong since, long to) {
+        while (true) {
+            long from = since.get();
+            if (from == CLOSED || from >= to) {
+                return to;
+            }
+            if (since.compareAndSet(from, to)) {
+                return from;
+            }
+        }
+    }
+
+    private static long startOf(LocalDate day) {
+        return day.atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private static long overlap(long start, long end, long from, long to) {
+        return Math.max(0, Math.min(end, to) - Math.max(start, from));
+    }
+
+    private void fire(Consumer<DurationManagerListener> event) {
+        for (Registration registration : listeners) {
+            if (registration.executor() == null) {
+                event.accept(registration.listener());
+            } else {
+                registration.executor().execute(() -> event.accept(registration.listener()));
+            }
+        }
+    }
+
+    private void fireUpdate(Task task, long epochDay, long millis) {
+        for (int i = 0; i < listeners.size(); i++) {
+            Registration registration = listeners.get(i);
+            if (registration.executor() == null) {
+                registration.listener().onTaskDurationUpdate(this, task, epochDay, millis);
+            } else {
+                registration.executor().execute(() -> registration.listener().onTaskDurationUpdate(this, task, epochDay, millis));
+            }
         }
-        scheduler.shutdown();
-        listeners.forEach(l -> l.onTaskDurationStop(this));
     }
 
     public String toString(){
@@ -107,13 +525,39 @@ public class DurationManager {
         return sTasks;
     }
 
+    /**
+     * A tracked task and the time its duration has been counted up to, or {@link #CLOSED}.
+     */
+    private record Tracked(Task task, AtomicLong since) {
+    }
+
+    private record Registration(DurationManagerListener listener, Executor executor) {
+    }
+
+    private record Day(long epochDay, long start, long end) {
+    }
+
     public interface DurationManagerListener {
-        void onTaskDurationAddTask(DurationManager durationManager, Task task);
-        void onTaskDurationRemoveTask(DurationManager durationManager, Task task);
-        void onTaskDurationStart(DurationManager durationManager);
-        void onTaskDurationStop(DurationManager durationManager);
-        void onTaskDurationPause(DurationManager durationManager);
-        void onTaskDurationResume(DurationManager durationManager);
+        default void onTaskDurationAddTask(DurationManager durationManager, Task task) {
+        }
+
+        default void onTaskDurationRemoveTask(DurationManager durationManager, Task task) {
+        }
+
+        default void onTaskDurationStart(DurationManager durationManager) {
+        }
+
+        default void onTaskDurationStop(DurationManager durationManager) {
+        }
+
+        default void onTaskDurationPause(DurationManager durationManager) {
+        }
+
+        default void onTaskDurationResume(DurationManager durationManager) {
+        }
+
+        default void onTaskDurationUpdate(DurationManager durationManager, Task task, long epochDay, long millis) {
+        }
 
     }
 
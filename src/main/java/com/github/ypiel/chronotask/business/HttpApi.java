@@ -0,0 +1,452 @@
+package com.github.ypiel.chronotask.business;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.ypiel.chronotask.model.DurationHistory;
+import com.github.ypiel.chronotask.model.Status;
+import com.github.ypiel.chronotask.model.Task;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Local HTTP API to read and drive the tracking from other tools, started with {@code -Dchrono.task.http.port}.
+ * <p>
+ * The server only listens on the loopback address and each request runs on its own virtual thread. The
+ * requests never touch the tasks of the UI: the owner of the tasks {@link #publish(List) publishes} a copy of
+ * them after each change, and the durations are read from the histories while holding the lock of the rollups,
+ * as the {@link DurationManager} updates them, or copied to be exported. The list of the tasks is serialized
+ * once per published copy and second, however many clients poll it.
+ * <p>
+ * Endpoints, answering JSON except for the export:
+ * <ul>
+ *     <li>{@code GET /api/status}: the tracked tasks, and the time spent today and this week,</li>
+ *     <li>{@code GET /api/tasks[?closed=false]}: the tasks and their time of today,</li>
+ *     <li>{@code GET /api/totals?period=day|week|month|year[&date=]} or {@code ?from=&to=}: the time spent on all
+ *     the tasks,</li>
+ *     <li>{@code POST /api/start?task=}: track the task, given by its id or the start of its uid, and its
+ *     parents, instead of the tracked ones,</li>
+ *     <li>{@code POST /api/stop}, {@code POST /api/pause}, {@code POST /api/resume},</li>
+ *     <li>{@code GET /api/export?period=&date=&format=text|csv|json_lines|markdown&minimum=&summary=&byTag=}:
+ *     the export of the period, streamed.</li>
+ * </ul>
+ * A task changed or removed since the tasks were published can't be started: the answer is {@code 409}.
+ */
+@Slf4j
+public class HttpApi {
+
+    private final DurationManager durationManager;
+    private final ObjectMapper mapper;
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<>(new Snapshot(0, List.of(), Map.of()));
+    private final AtomicReference<CachedBody> tasksBody = new AtomicReference<>(new CachedBody(-1, -1, null));
+
+    private volatile Consumer<List<Task>> onTrack = this::track;
+    private volatile Executor trackExecutor = Runnable::run;
+    private volatile Runnable onPause;
+    private volatile Runnable onResume;
+    private volatile Executor pauseExecutor = Runnable::run;
+
+    public HttpApi(DurationManager durationManager, ObjectMapper mapper, int port) throws IOException {
+        this.durationManager = durationManager;
+        this.mapper = mapper;
+        this.onPause = durationManager::pause;
+        this.onResume = durationManager::resume;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.setExecutor(executor);
+        server.createContext("/api/status", get(this::status));
+        server.createContext("/api/tasks", get(this::tasks));
+        server.createContext("/api/totals", get(this::totals));
+        server.createContext("/api/export", get(this::export));
+        server.createContext("/api/start", post(this::start));
+        server.createContext("/api/stop", post(exchange -> tracking(exchange, List.of())));
+        server.createContext("/api/pause", post(exchange -> pausing(exchange, true)));
+        server.createContext("/api/resume", post(exchange -> pausing(exchange, false)));
+    }
+
+    public void start() {
+        server.start();
+        log.info("HTTP API listening on http://{}:{}/api", server.getAddress().getHostString(), server.getAddress().getPort());
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdown();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Change the tracked tasks as the owner of the tasks does, e.g. by selecting them in the UI, instead of
+     * directly with the {@link DurationManager}.
+     *
+     * @param onTrack  receives the path from the main task to the task to track, empty to stop tracking. It throws
+     *                 an {@link IllegalStateException} if the task is no longer there.
+     * @param executor the executor to call it on, e.g. {@code Platform::runLater}.
+     */
+    public void setOnTrack(Consumer<List<Task>> onTrack, Executor executor) {
+        this.onTrack = onTrack;
+        this.trackExecutor = executor;
+    }
+
+    /**
+     * Pause and resume the tracking as the owner of the tasks does, e.g. with its pause button, instead of
+     * directly with the {@link DurationManager}.
+     *
+     * @param executor the executor to call them on, e.g. {@code Platform::runLater}.
+     */
+    public void setOnPause(Runnable onPause, Runnable onResume, Executor executor) {
+        this.onPause = onPause;
+        this.onResume = onResume;
+        this.pauseExecutor = executor;
+    }
+
+    /**
+     * Publish the main tasks to serve, to be called by the owner of the tasks after they changed. Their
+     * structure is copied, their histories are shared.
+     */
+    public void publish(List<Task> tasks) {
+        List<Task> copies = new ArrayList<>(tasks.size());
+        Map<Task, Task> originals = new IdentityHashMap<>();
+        for (Task task : tasks) {
+            copies.add(copy(task, false, originals));
+        }
+        snapshot.updateAndGet(previous -> new Snapshot(previous.version() + 1, List.copyOf(copies),
+                Collections.unmodifiableMap(originals)));
+    }
+
+    private void status(HttpExchange exchange) throws IOException {
+        LocalDate today = LocalDate.now();
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("tracking", durationManager.getTasks().stream()
+                .map(task -> Map.of("uid", task.getUid(), "id", task.getId(), "description", task.getShortDescription()))
+                .toList());
+        status.put("paused", durationManager.isPaused());
+        status.put("todayMillis", durationManager.getLiveTotal(Period.DAY, today).toMillis());
+        status.put("weekMillis", durationManager.getLiveTotal(Period.WEEK, today).toMillis());
+        sendJson(exchange, status);
+    }
+
+    private void tasks(HttpExchange exchange) throws IOException {
+        boolean closed = !"false".equals(parameters(exchange).get("closed"));
+        Snapshot current = snapshot.get();
+        long second = System.currentTimeMillis() / 1000;
+        byte[] body;
+        CachedBody cached = tasksBody.get();
+        if (closed && cached.version() == current.version() && cached.second() == second) {
+            body = cached.body();
+        } else {
+            long today = LocalDate.now().toEpochDay();
+            List<TaskJson> json = new ArrayList<>(current.tasks().size());
+            for (Task task : current.tasks()) {
+                if (closed || task.getStatus() != Status.Closed) {
+                    json.add(toJson(task, today));
+                }
+            }
+            body = mapper.writeValueAsBytes(json);
+            if (closed) {
+                tasksBody.set(new CachedBody(current.version(), second, body));
+            }
+        }
+        send(exchange, 200, "application/json", body);
+    }
+
+    private void totals(HttpExchange exchange) throws IOException {
+        Map<String, String> parameters = parameters(exchange);
+        LocalDate from;
+        LocalDate to;
+        long millis;
+        if (parameters.containsKey("from")) {
+            from = LocalDate.parse(parameters.get("from"));
+            to = LocalDate.parse(parameters.getOrDefault("to", from.toString()));
+            millis = 0;
+            Object lock = durationManager.getRollups();
+            for (Task task : snapshot.get().tasks()) {
+                synchronized (lock) {
+                    millis += task.getDurationsByDate().sumMillis(from.toEpochDay(), to.toEpochDay());
+                }
+            }
+        } else {
+            Period period = period(parameters);
+            LocalDate date = date(parameters);
+            from = period.from(date);
+            to = period.to(date);
+            millis = durationManager.getLiveTotal(period, date).toMillis();
+        }
+        Map<String, Object> totals = new LinkedHashMap<>();
+        totals.put("from", from.toString());
+        totals.put("to", to.toString());
+        totals.put("millis", millis);
+        totals.put("duration", TaskExporter.formatDuration(Duration.ofMillis(millis)));
+        sendJson(exchange, totals);
+    }
+
+    private void export(HttpExchange exchange) throws IOException {
+        Map<String, String> parameters = parameters(exchange);
+        Period period = period(parameters);
+        LocalDate date = date(parameters);
+        TaskExporter.Format format = TaskExporter.Format.valueOf(parameters.getOrDefault("format", "text").toUpperCase(Locale.ROOT));
+        TaskExporter exporter = new TaskExporter(format, Duration.ofMinutes(Long.parseLong(parameters.getOrDefault("minimum", "2"))),
+                !"true".equals(parameters.get("summary")));
+        boolean byTag = "true".equals(parameters.get("byTag"));
+
+        durationManager.checkpoint();
+        List<Task> tasks = null;
+        if (!byTag) {
+            // Copied task by task, the tracking is only blocked for the copy of one history
+            List<Task> published = snapshot.get().tasks();
+            tasks = new ArrayList<>(published.size());
+            for (Task task : published) {
+                tasks.add(copy(task, true, null));
+            }
+        }
+
+        exchange.getResponseHeaders().set("Content-Type", switch (format) {
+            case TEXT -> "text/plain; charset=utf-8";
+            case CSV -> "text/csv; charset=utf-8";
+            case JSON_LINES -> "application/x-ndjson";
+            case MARKDOWN -> "text/markdown; charset=utf-8";
+        });
+        // Chunked: the export is written as it is computed
+        exchange.sendResponseHeaders(200, 0);
+        try (Writer out = new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8)) {
+            if (byTag) {
+                exporter.exportTags(durationManager.getRollups().getTags(), period.from(date), period.to(date), out);
+            } else {
+                exporter.export(tasks, period.from(date), period.to(date), out);
+            }
+        }
+    }
+
+    private void start(HttpExchange exchange) throws IOException {
+        String query = parameters(exchange).get("task");
+        if (query == null) {
+            throw new IllegalArgumentException("Missing task.");
+        }
+        Snapshot current = snapshot.get();
+        Task copy = TaskLookup.find(current.tasks(), query);
+        // The tracking is done on the tasks the copies have been built from
+        List<Task> path = new ArrayList<>();
+        for (Task task : TaskLookup.path(current.tasks(), copy)) {
+            Task original = current.originals().get(task);
+            if (original == null) {
+                throw new IllegalStateException("Task '" + query + "' changed, try again.");
+            }
+            path.add(original);
+        }
+        tracking(exchange, path);
+    }
+
+    /**
+     * Track the tasks of the path, on the executor of the owner of the tasks, and answer the status once done.
+     */
+    private void tracking(HttpExchange exchange, List<Task> path) throws IOException {
+        Consumer<List<Task>> track = onTrack;
+        CompletableFuture<Void> done = CompletableFuture.runAsync(() -> {
+            // A sub-task removed since the tasks were published is still in the path
+            for (int i = 1; i < path.size(); i++) {
+                if (!path.get(i - 1).getSubTasks().contains(path.get(i))) {
+                    throw new IllegalStateException("Task '" + path.get(i).getId() + "' removed.");
+                }
+            }
+            track.accept(path);
+        }, trackExecutor);
+        await(done);
+        status(exchange);
+    }
+
+    /**
+     * Pause or resume the tracking, on the executor of the owner of the tasks, and answer the status once done.
+     */
+    private void pausing(HttpExchange exchange, boolean pause) throws IOException {
+        await(CompletableFuture.runAsync(pause ? onPause : onResume, pauseExecutor));
+        status(exchange);
+    }
+
+    private static void await(CompletableFuture<Void> done) throws IOException {
+        try {
+            done.get(5, TimeUnit.SECONDS);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new IOException(e.getCause());
+        } catch (TimeoutException e) {
+            throw new IOException("The tracking didn't change in time.", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Track the tasks of the path instead of the tracked ones, directly with the {@link DurationManager}.
+     */
+    private void track(List<Task> path) {
+        for (Task task : durationManager.getTasks()) {
+            if (!path.contains(task)) {
+                durationManager.removeTasks(task);
+            }
+        }
+        for (Task task : path) {
+            durationManager.addTasks(task);
+        }
+    }
+
+    private TaskJson toJson(Task task, long today) {
+        long millis;
+        synchronized (durationManager.getRollups()) {
+            millis = task.getDurationsByDate().getMillis(today);
+        }
+        List<TaskJson> subTasks = new ArrayList<>(task.getSubTasks().size());
+        for (Task subTask : task.getSubTasks()) {
+            subTasks.add(toJson(subTask, today));
+        }
+        return new TaskJson(task.getUid(), task.getId(), task.getShortDescription(), task.getStatus(), task.getTags(), millis, subTasks);
+    }
+
+    /**
+     * @param history   copy the history too, while holding the lock of the rollups, otherwise it is shared.
+     * @param originals if not {@code null}, receives the copies and the tasks they come from.
+     */
+    private Task copy(Task task, boolean history, Map<Task, Task> originals) {
+        List<Task> subTasks = new ArrayList<>(task.getSubTasks().size());
+        for (Task subTask : task.getSubTasks()) {
+            subTasks.add(copy(subTask, history, originals));
+        }
+        DurationHistory durations = task.getDurationsByDate();
+        if (history) {
+            synchronized (durationManager.getRollups()) {
+                durations = durations.copy();
+            }
+        }
+        Task copy = new Task(task.getUid(), task.getOrder(), task.getId(), task.getShortDescription(), "", task.getNotesRef(),
+                task.getStatus(), List.copyOf(task.getTags()), List.copyOf(subTasks), durations, task.getAutoTaskAction());
+        if (originals != null) {
+            originals.put(copy, task);
+        }
+        return copy;
+    }
+
+    private static Period period(Map<String, String> parameters) {
+        return Period.valueOf(parameters.getOrDefault("period", "day").toUpperCase(Locale.ROOT));
+    }
+
+    private static LocalDate date(Map<String, String> parameters) {
+        String date = parameters.get("date");
+        return date == null ? LocalDate.now() : LocalDate.parse(date);
+    }
+
+    private static Map<String, String> parameters(HttpExchange exchange) {
+        Map<String, String> parameters = new HashMap<>();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) {
+            return parameters;
+        }
+        for (String parameter : query.split("&")) {
+            int equals = parameter.indexOf('=');
+            String name = equals < 0 ? parameter : parameter.substring(0, equals);
+            String value = equals < 0 ? "true" : parameter.substring(equals + 1);
+            parameters.put(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return parameters;
+    }
+
+    private void sendJson(HttpExchange exchange, Object value) throws IOException {
+        send(exchange, 200, "application/json", mapper.writeValueAsBytes(value));
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static HttpHandler get(Handler handler) {
+        return handle("GET", handler);
+    }
+
+    private static HttpHandler post(Handler handler) {
+        return handle("POST", handler);
+    }
+
+    private static HttpHandler handle(String method, Handler handler) {
+        Metrics.Timer requests = Metrics.timer("http.requests");
+        return exchange -> {
+            long start = requests.start();
+            try (exchange) {
+                if (!method.equals(exchange.getRequestMethod())) {
+                    exchange.getResponseHeaders().set("Allow", method);
+                    send(exchange, 405, "text/plain; charset=utf-8", new byte[0]);
+                    return;
+                }
+                try {
+                    handler.handle(exchange);
+                } catch (IllegalArgumentException | DateTimeParseException e) {
+                    send(exchange, e.getMessage() != null && e.getMessage().startsWith("No task") ? 404 : 400,
+                            "text/plain; charset=utf-8", String.valueOf(e.getMessage()).getBytes(StandardCharsets.UTF_8));
+                } catch (IllegalStateException e) {
+                    send(exchange, 409, "text/plain; charset=utf-8", String.valueOf(e.getMessage()).getBytes(StandardCharsets.UTF_8));
+                }
+            } catch (IOException | RuntimeException e) {
+                log.warn("HTTP API: {} {} failed.", exchange.getRequestMethod(), exchange.getRequestURI(), e);
+            }
+            requests.stop(start);
+        };
+    }
+
+    @FunctionalInterface
+    private interface Handler {
+        void handle(HttpExchange exchange) throws IOException;
+    }
+
+    /**
+     * The published tasks, and the tasks they are copies of.
+     */
+    private record Snapshot(long version, List<Task> tasks, Map<Task, Task> originals) {
+    }
+
+    private record CachedBody(long version, long second, byte[] body) {
+    }
+
+    private record TaskJson(String uid, String id, String description, Status status, List<String> tags,
+                            long todayMillis, List<TaskJson> subTasks) {
+    }
+
+}
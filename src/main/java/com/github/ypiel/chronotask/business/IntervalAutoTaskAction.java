@@ -7,8 +7,10 @@ import java.time.Duration;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import javafx.geometry.Pos;
+import lombok.extern.slf4j.Slf4j;
 
 
+@Slf4j
 public class IntervalAutoTaskAction implements AutoTaskAction {
 
     private Destination destination;
@@ -28,7 +30,7 @@ public class IntervalAutoTaskAction implements AutoTaskAction {
             destination.pause();
         }
 
-        System.out.println("IntervalAutoTaskAction: " + this.destination.getSelectedMainTask().getViewId());
+        log.debug("Auto task action on {}.", this.destination.getSelectedMainTask().getViewId());
         String title = this.destination.getSelectedMainTask().getViewId() + ": " + this.destination.getSelectedMainTask().getShortDescription();
         title = (this.destination.isPaused() ? "ChronoTask is paused: " : "Continue: ") + title;
 
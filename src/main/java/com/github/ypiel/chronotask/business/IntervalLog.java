@@ -0,0 +1,143 @@
+package com.github.ypiel.chronotask.business;
+
+import com.github.ypiel.chronotask.model.Task;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Append-only log of the tracked intervals, one line per interval:
+ * {@code <task uid>\t<task id>\t<start>\t<end>\t<milliseconds>}, the start and the end as ISO-8601 instants.
+ * <p>
+ * The durations of the tasks are the sums of these intervals, so the log tells when the time of a day has been
+ * spent. An interval never crosses midnight, it is split.
+ * <p>
+ * The opening and the closing of the interval of a task are also logged, {@code <task uid>\t<task id>\t<time>\topen}
+ * and {@code ...\tclose}, as well as the last time an interval was known to be open, as the modification time of
+ * the file. So an interval left open when the application was killed is found at the next start.
+ */
+@Slf4j
+public class IntervalLog {
+
+    private final Path file;
+    private BufferedWriter writer;
+
+    public IntervalLog(Path file) {
+        this.file = file;
+    }
+
+    public synchronized void append(Task task, long start, long end) {
+        write(task, Instant.ofEpochMilli(start) + "\t" + Instant.ofEpochMilli(end) + "\t" + (end - start));
+    }
+
+    /**
+     * The time of the task is counted from {@code start}.
+     */
+    public synchronized void open(Task task, long start) {
+        write(task, Instant.ofEpochMilli(start) + "\topen");
+    }
+
+    /**
+     * The time of the task is no longer counted since {@code end}, its last interval has been appended.
+     */
+    public synchronized void close(Task task, long end) {
+        write(task, Instant.ofEpochMilli(end) + "\tclose");
+    }
+
+    /**
+     * Intervals are still open at {@code now}, e.g. every minute.
+     */
+    public synchronized void touch(long now) {
+        try {
+            if (Files.exists(file)) {
+                Files.setLastModifiedTime(file, FileTime.fromMillis(now));
+            }
+        } catch (IOException e) {
+            log.warn("Can't touch {}.", file, e);
+        }
+    }
+
+    /**
+     * @return the intervals open and not closed, from the end of their last part appended to the last time they
+     * were known to be open.
+     */
+    public synchronized List<Interval> unclosed() throws IOException {
+        if (!Files.exists(file)) {
+            return List.of();
+        }
+        // uid of a task => time counted from
+        Map<String, Long> open = new LinkedHashMap<>();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t");
+                try {
+                    String uid = fields[0];
+                    String last = fields[fields.length - 1];
+                    if (last.equals("open")) {
+                        open.put(uid, Instant.parse(fields[fields.length - 2]).toEpochMilli());
+                    } else if (last.equals("close")) {
+                        open.remove(uid);
+                    } else if (open.containsKey(uid)) {
+                        // Appended at a checkpoint, the interval goes on from its end
+                        long end = Instant.parse(fields[fields.length - 2]).toEpochMilli();
+                        open.merge(uid, end, Math::max);
+                    }
+                } catch (ArrayIndexOutOfBoundsException | DateTimeParseException e) {
+                    // The last line may be truncated if the application was killed while writing it
+                    log.warn("Skip unreadable interval: {}", line);
+                }
+            }
+        }
+        long lastOpen = Files.getLastModifiedTime(file).toMillis();
+        List<Interval> intervals = new ArrayList<>();
+        open.forEach((uid, start) -> intervals.add(new Interval(uid, start, Math.max(start, lastOpen))));
+        return intervals;
+    }
+
+    public synchronized void close() {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.close();
+        } catch (IOException e) {
+            log.warn("Can't close {}.", file, e);
+        }
+        writer = null;
+    }
+
+    private void write(Task task, String fields) {
+        try {
+            if (writer == null) {
+                Files.createDirectories(file.getParent());
+                writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            }
+            writer.write(task.getUid() + "\t" + task.getId() + "\t" + fields + "\n");
+            writer.flush();
+        } catch (IOException e) {
+            log.error("Can't log the interval of task {}.", task.getId(), e);
+        }
+    }
+
+    /**
+     * An interval of the task with the given uid, from {@code start} to {@code end} in epoch milliseconds.
+     */
+    public record Interval(String uid, long start, long end) {
+    }
+
+}
@@ -0,0 +1,170 @@
+package com.github.ypiel.chronotask.business;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.util.HashMap;
+import java.util.Map;
+
+import jdk.jfr.Category;
+import jdk.jfr.Configuration;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * The Java Flight Recorder events of the application, to see in a recording which of its operations ran when the
+ * UI stuttered, and on which thread.
+ * <p>
+ * They are disabled unless the recording enables them, e.g. with the shipped {@code chrono-task.jfc} profile:
+ * {@code -XX:StartFlightRecording:settings=default,settings=chrono-task.jfc,filename=chrono-task.jfr}, or with
+ * {@code -Dchrono.task.jfr=<file>}, see {@link #startRecording(Path)}.
+ */
+public final class JfrEvents {
+
+    public static final String CATEGORY = "Chrono Task";
+
+    private JfrEvents() {
+    }
+
+    /**
+     * Start a recording with the JDK {@code default} settings and the ones of {@code chrono-task.jfc}, written
+     * to {@code file} when the JVM exits.
+     */
+    public static Recording startRecording(Path file) throws IOException {
+        Map<String, String> settings = new HashMap<>(load("default").getSettings());
+        try (Reader reader = new InputStreamReader(JfrEvents.class.getResourceAsStream("/chrono-task.jfc"), StandardCharsets.UTF_8)) {
+            settings.putAll(Configuration.create(reader).getSettings());
+        } catch (ParseException e) {
+            throw new IOException("Invalid chrono-task.jfc.", e);
+        }
+        Recording recording = new Recording(settings);
+        recording.setName("chrono-task");
+        recording.setDestination(file);
+        recording.setDumpOnExit(true);
+        recording.start();
+        return recording;
+    }
+
+    private static Configuration load(String name) throws IOException {
+        try {
+            return Configuration.getConfiguration(name);
+        } catch (ParseException e) {
+            throw new IOException("Invalid JFR configuration " + name + ".", e);
+        }
+    }
+
+    @Name("com.github.ypiel.chronotask.Load")
+    @Label("Load")
+    @Category(CATEGORY)
+    @Description("The tasks read at startup, with the journal replayed over them.")
+    @Enabled(false)
+    public static final class LoadEvent extends Event {
+        @Label("Tasks")
+        @Description("The main tasks.")
+        public int tasks;
+
+        @Label("Size")
+        @DataAmount
+        public long bytes;
+    }
+
+    @Name("com.github.ypiel.chronotask.Save")
+    @Label("Save")
+    @Category(CATEGORY)
+    @Description("The changed main tasks written, and the journal compacted.")
+    @Enabled(false)
+    public static final class SaveEvent extends Event {
+        @Label("Tasks")
+        @Description("The main tasks.")
+        public int tasks;
+
+        @Label("Written")
+        @Description("The main tasks written.")
+        public int written;
+
+        @Label("Size")
+        @DataAmount
+        public long bytes;
+    }
+
+    @Name("com.github.ypiel.chronotask.Tick")
+    @Label("Tick")
+    @Category(CATEGORY)
+    @Description("The time elapsed added to the tracked tasks, every second.")
+    @Enabled(false)
+    @StackTrace(false)
+    public static final class TickEvent extends Event {
+        @Label("Tasks Touched")
+        @Description("The tracked tasks the time was added to.")
+        public int touched;
+
+        @Label("Drift")
+        @Description("How late the tick runs after the second it is due.")
+        @Timespan(Timespan.MILLISECONDS)
+        public long drift;
+    }
+
+    @Name("com.github.ypiel.chronotask.Render")
+    @Label("Markdown Render")
+    @Category(CATEGORY)
+    @Description("Notes rendered from markdown to HTML.")
+    @Enabled(false)
+    public static final class RenderEvent extends Event {
+        @Label("Length")
+        @Description("The length of the markdown, in characters.")
+        public int length;
+    }
+
+    @Name("com.github.ypiel.chronotask.Filter")
+    @Label("Filter")
+    @Category(CATEGORY)
+    @Description("The filter of a table of tasks applied.")
+    @Enabled(false)
+    public static final class FilterEvent extends Event {
+        @Label("Filter")
+        public String filter;
+
+        @Label("Incremental")
+        @Description("Only the tasks shown by the previous filter were tested.")
+        public boolean incremental;
+
+        @Label("Tasks")
+        @Description("The tasks tested: all those of the table, or only the ones shown when incremental.")
+        public int tasks;
+    }
+
+    @Name("com.github.ypiel.chronotask.Export")
+    @Label("Export")
+    @Category(CATEGORY)
+    @Description("The time of the tasks exported for a period.")
+    @Enabled(false)
+    public static final class ExportEvent extends Event {
+        @Label("Format")
+        public String format;
+
+        @Label("From")
+        public String from;
+
+        @Label("To")
+        public String to;
+
+        @Label("Tasks")
+        @Description("The main tasks.")
+        public int tasks;
+
+        @Label("Days")
+        @Description("The days with time exported.")
+        public int days;
+    }
+
+}
@@ -0,0 +1,129 @@
+package com.github.ypiel.chronotask.business;
+
+import com.github.ypiel.chronotask.model.Task;
+
+import org.commonmark.parser.Parser;
+import org.commonmark.renderer.html.HtmlRenderer;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Render markdown to HTML on virtual threads.
+ * <p>
+ * The parser and the renderer are created once and shared, they are thread-safe. When several renderings are
+ * requested in a row, only the result of the last one is delivered.
+ * <p>
+ * The renderings of the notes are kept in a bounded cache, by task and {@link NotesStore#ref(String) ref} of
+ * the notes, the hash of their content: coming back to a task shows its notes without reading, parsing or
+ * rendering them again. The notes of the tasks the user is likely to select next can be rendered in advance
+ * with {@link #prefetch(Task, Supplier)}.
+ */
+@Slf4j
+public class MarkdownRenderService {
+
+    private static final int CACHE_SIZE = 64;
+
+    private final Parser parser = Parser.builder().build();
+    private final HtmlRenderer renderer = HtmlRenderer.builder().build();
+
+    private final Metrics.Timer renderTimer = Metrics.timer("notes.render");
+
+    private final AtomicLong lastRequest = new AtomicLong(0);
+
+    /**
+     * uid of a task and ref of its notes => their rendering.
+     */
+    private final Map<Key, String> cache = new LinkedHashMap<>(CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, String> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    public String render(String markdown) {
+        JfrEvents.RenderEvent event = new JfrEvents.RenderEvent();
+        event.begin();
+        long start = renderTimer.start();
+        String html = renderer.render(parser.parse(markdown));
+        renderTimer.stop(start);
+        event.length = markdown.length();
+        event.commit();
+        return html;
+    }
+
+    /**
+     * @param notesRef the {@link NotesStore#ref(String) ref} of the notes.
+     * @return the HTML of the notes of the task with this ref if they have already been rendered, {@code null}
+     * otherwise.
+     */
+    public String getCached(Task task, String notesRef) {
+        synchronized (cache) {
+            return cache.get(new Key(task.getUid(), notesRef));
+        }
+    }
+
+    /**
+     * Render the notes of the task on a virtual thread and give the HTML to {@code onRendered}, on that thread,
+     * unless another rendering has been requested in the meantime.
+     *
+     * @param task     the task the notes belong to, to keep the rendering in the cache, or {@code null}.
+     * @param notesRef the {@link NotesStore#ref(String) ref} of the notes.
+     */
+    public void render(Task task, String notesRef, String markdown, Consumer<String> onRendered) {
+        long request = lastRequest.incrementAndGet();
+        Thread.ofVirtual().name("chrono-task-markdown").start(() -> {
+            try {
+                String html = renderAndCache(task, notesRef, markdown);
+                if (request == lastRequest.get()) {
+                    onRendered.accept(html);
+                }
+            } catch (RuntimeException e) {
+                log.error("Can't render the notes.", e);
+            }
+        });
+    }
+
+    /**
+     * Read and render the notes of the task on a virtual thread, if they are not in the cache yet, to have them
+     * ready when the task is selected. The ref of the notes is the one of the task when called.
+     */
+    public void prefetch(Task task, Supplier<String> markdown) {
+        String notesRef = NotesStore.ref(task);
+        if (getCached(task, notesRef) != null) {
+            return;
+        }
+        Thread.ofVirtual().name("chrono-task-markdown-prefetch").start(() -> {
+            try {
+                renderAndCache(task, notesRef, markdown.get());
+            } catch (RuntimeException e) {
+                log.debug("Can't prefetch the notes of task {}.", task.getId(), e);
+            }
+        });
+    }
+
+    private String renderAndCache(Task task, String notesRef, String markdown) {
+        if (task != null) {
+            String html = getCached(task, notesRef);
+            if (html != null) {
+                return html;
+            }
+        }
+        String html = render(markdown);
+        if (task != null) {
+            synchronized (cache) {
+                cache.put(new Key(task.getUid(), notesRef), html);
+            }
+        }
+        return html;
+    }
+
+    private record Key(String uid, String notesRef) {
+    }
+
+}
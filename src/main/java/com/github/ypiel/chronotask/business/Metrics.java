@@ -0,0 +1,349 @@
+package com.github.ypiel.chronotask.business;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.NotCompliantMBeanException;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * The metrics of the application: counters, gauges and timers, by name, e.g. {@code persistence.save}.
+ * <p>
+ * They are cheap enough for the hot paths: a counter is a {@link LongAdder}, a timer counts the durations in
+ * buckets of a quarter of a power of two, so its percentiles are within 12% and nothing is allocated when a
+ * duration is recorded.
+ * <p>
+ * Once {@link #registerMBeans()} is called, each metric is an MBean of the platform server, named
+ * {@code com.github.ypiel.chronotask:type=<Counter|Gauge|Timer>,name=<name>}, so {@code jconsole} or any JMX
+ * client can read them. The command line doesn't register them, starting the server isn't worth it for a
+ * command.
+ */
+@Slf4j
+public final class Metrics {
+
+    public static final String DOMAIN = "com.github.ypiel.chronotask";
+
+    private static final Map<String, Metric> METRICS = new ConcurrentHashMap<>();
+    private static volatile MBeanServer server;
+
+    private Metrics() {
+    }
+
+    public static Counter counter(String name) {
+        return get(name, Counter.class, Counter::new);
+    }
+
+    public static Timer timer(String name) {
+        return get(name, Timer.class, Timer::new);
+    }
+
+    /**
+     * Give the value of a gauge, replacing the previous one.
+     */
+    public static Gauge gauge(String name, LongSupplier value) {
+        Gauge gauge = get(name, Gauge.class, Gauge::new);
+        gauge.value = value;
+        return gauge;
+    }
+
+    /**
+     * Register the metrics as MBeans, the ones created so far and the next ones.
+     */
+    public static synchronized void registerMBeans() {
+        if (server != null) {
+            return;
+        }
+        server = ManagementFactory.getPlatformMBeanServer();
+        METRICS.values().forEach(Metrics::register);
+    }
+
+    /**
+     * @return all the metrics and their values, sorted by name, e.g. to log them.
+     */
+    public static String describe() {
+        StringBuilder description = new StringBuilder();
+        new TreeMap<>(METRICS).forEach((name, metric) -> description.append(name).append(": ").append(metric).append('\n'));
+        return description.toString();
+    }
+
+    private static <M extends Metric> M get(String name, Class<M> type, Function<String, M> create) {
+        Metric metric = METRICS.get(name);
+        if (metric == null) {
+            synchronized (Metrics.class) {
+                metric = METRICS.get(name);
+                if (metric == null) {
+                    metric = create.apply(name);
+                    METRICS.put(name, metric);
+                    if (server != null) {
+                        register(metric);
+                    }
+                }
+            }
+        }
+        if (!type.isInstance(metric)) {
+            throw new IllegalArgumentException(name + " is a " + metric.getClass().getSimpleName() + ".");
+        }
+        return type.cast(metric);
+    }
+
+    private static void register(Metric metric) {
+        try {
+            ObjectName objectName = new ObjectName(DOMAIN + ":type=" + metric.getClass().getSimpleName()
+                    + ",name=" + ObjectName.quote(metric.name));
+            if (!server.isRegistered(objectName)) {
+                server.registerMBean(metric.mbean(), objectName);
+            }
+        } catch (JMException e) {
+            log.warn("Can't register the MBean of {}.", metric.name, e);
+        }
+    }
+
+    private abstract static sealed class Metric permits Counter, Gauge, Timer {
+
+        final String name;
+
+        Metric(String name) {
+            this.name = name;
+        }
+
+        abstract StandardMBean mbean() throws NotCompliantMBeanException;
+    }
+
+    public interface CounterMBean {
+        long getCount();
+
+        void reset();
+    }
+
+    public static final class Counter extends Metric implements CounterMBean {
+
+        private final LongAdder count = new LongAdder();
+
+        private Counter(String name) {
+            super(name);
+        }
+
+        public void increment() {
+            count.increment();
+        }
+
+        public void add(long value) {
+            count.add(value);
+        }
+
+        @Override
+        public long getCount() {
+            return count.sum();
+        }
+
+        @Override
+        public void reset() {
+            count.reset();
+        }
+
+        @Override
+        StandardMBean mbean() throws NotCompliantMBeanException {
+            return new StandardMBean(this, CounterMBean.class);
+        }
+
+        @Override
+        public String toString() {
+            return Long.toString(getCount());
+        }
+    }
+
+    public interface GaugeMBean {
+        long getValue();
+    }
+
+    public static final class Gauge extends Metric implements GaugeMBean {
+
+        private volatile LongSupplier value = () -> 0;
+
+        private Gauge(String name) {
+            super(name);
+        }
+
+        @Override
+        public long getValue() {
+            return value.getAsLong();
+        }
+
+        @Override
+        StandardMBean mbean() throws NotCompliantMBeanException {
+            return new StandardMBean(this, GaugeMBean.class);
+        }
+
+        @Override
+        public String toString() {
+            return Long.toString(getValue());
+        }
+    }
+
+    public interface TimerMBean {
+        long getCount();
+
+        double getTotalMillis();
+
+        double getMeanMillis();
+
+        double getP50Millis();
+
+        double getP90Millis();
+
+        double getP99Millis();
+
+        double getMaxMillis();
+
+        void reset();
+    }
+
+    /**
+     * A histogram of durations in nanoseconds.
+     */
+    public static final class Timer extends Metric implements TimerMBean {
+
+        // 4 buckets per power of two: [4, 5, 6, 7] << (power - 2) nanoseconds
+        private static final int SUB_BUCKETS = 4;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(64 * SUB_BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        private Timer(String name) {
+            super(name);
+        }
+
+        /**
+         * @return the current time, to give to {@link #stop(long)}.
+         */
+        public long start() {
+            return System.nanoTime();
+        }
+
+        /**
+         * Record the duration since {@code start}, given by {@link #start()}.
+         */
+        public void stop(long start) {
+            record(System.nanoTime() - start);
+        }
+
+        public void record(long nanos) {
+            if (nanos < 0) {
+                return;
+            }
+            buckets.incrementAndGet(bucket(nanos));
+            count.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        @Override
+        public long getCount() {
+            return count.sum();
+        }
+
+        @Override
+        public double getTotalMillis() {
+            return totalNanos.sum() / 1e6;
+        }
+
+        @Override
+        public double getMeanMillis() {
+            long n = count.sum();
+            return n == 0 ? 0 : totalNanos.sum() / 1e6 / n;
+        }
+
+        @Override
+        public double getP50Millis() {
+            return percentile(0.5) / 1e6;
+        }
+
+        @Override
+        public double getP90Millis() {
+            return percentile(0.9) / 1e6;
+        }
+
+        @Override
+        public double getP99Millis() {
+            return percentile(0.99) / 1e6;
+        }
+
+        @Override
+        public double getMaxMillis() {
+            return maxNanos.get() / 1e6;
+        }
+
+        @Override
+        public void reset() {
+            for (int i = 0; i < buckets.length(); i++) {
+                buckets.set(i, 0);
+            }
+            count.reset();
+            totalNanos.reset();
+            maxNanos.set(0);
+        }
+
+        /**
+         * @return the middle of the bucket holding the given percentile, in nanoseconds.
+         */
+        private long percentile(double percentile) {
+            long total = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                total += buckets.get(i);
+            }
+            long rank = (long) Math.ceil(total * percentile);
+            long seen = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                seen += buckets.get(i);
+                if (seen >= rank && seen > 0) {
+                    return Math.min(middle(i), maxNanos.get());
+                }
+            }
+            return 0;
+        }
+
+        private static int bucket(long nanos) {
+            if (nanos < SUB_BUCKETS) {
+                return (int) nanos;
+            }
+            int power = 63 - Long.numberOfLeadingZeros(nanos);
+            int sub = (int) (nanos >>> (power - 2)) & (SUB_BUCKETS - 1);
+            return power * SUB_BUCKETS + sub;
+        }
+
+        private static long middle(int bucket) {
+            if (bucket < SUB_BUCKETS) {
+                return bucket;
+            }
+            int power = bucket / SUB_BUCKETS;
+            long lower = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << (power - 2);
+            return lower + (1L << (power - 2)) / 2;
+        }
+
+        @Override
+        StandardMBean mbean() throws NotCompliantMBeanException {
+            return new StandardMBean(this, TimerMBean.class);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d, mean %.3fms, p50 %.3fms, p99 %.3fms, max %.3fms", getCount(), getMeanMillis(),
+                    getP50Millis(), getP99Millis(), getMaxMillis());
+        }
+    }
+
+}
@@ -0,0 +1,279 @@
+package com.github.ypiel.chronotask.business;
+
+import com.github.ypiel.chronotask.model.Task;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.stream.Stream;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Content-addressed store of the notes of the tasks.
+ * <p>
+ * The notes of a task are saved in {@code notes/<task uid>/<sha-256 of the notes>.md} and the task only keeps
+ * the hash in {@link Task#getNotesRef()}. Its {@link Task#getNotes()} stays {@code null} until someone asks for
+ * them with {@link #load(Task)}; the loaded notes are kept in a bounded cache instead of in the task.
+ * A file is never rewritten, an edit creates a new file and the older ones are removed after a while.
+ * The files are written on the given executor, e.g. the persistence thread, not on the thread editing the notes.
+ */
+@Slf4j
+public class NotesStore {
+
+    private static final int CACHE_SIZE = 64;
+    private static final Duration RETENTION = Duration.ofDays(30);
+
+    private final Path dir;
+    private final Executor writer;
+
+    /**
+     * ref => notes saved and not written yet.
+     */
+    private final Map<String, String> pending = new ConcurrentHashMap<>();
+
+    private final Map<String, String> cache = new LinkedHashMap<>(CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    public NotesStore(Path dir) {
+        this(dir, Runnable::run);
+    }
+
+    public NotesStore(Path dir, Executor writer) {
+        this.dir = dir;
+        this.writer = writer;
+    }
+
+    /**
+     * @return the notes of the task, read from the store if they are not in memory.
+     */
+    public String load(Task task) {
+        if (task.getNotes() != null) {
+            return task.getNotes();
+        }
+        String ref = task.getNotesRef();
+        if (ref == null || ref.isEmpty()) {
+            return "";
+        }
+
+        synchronized (cache) {
+            String notes = cache.get(ref);
+            if (notes != null) {
+                return notes;
+            }
+        }
+
+        String notes = read(task.getUid(), ref);
+        synchronized (cache) {
+            cache.put(ref, notes);
+        }
+        return notes;
+    }
+
+    /**
+     * @return the notes of the task, without keeping them in the cache when they are read from the store.
+     */
+    public String read(Task task) {
+        if (task.getNotes() != null) {
+            return task.getNotes();
+        }
+        String ref = task.getNotesRef();
+        if (ref == null || ref.isEmpty()) {
+            return "";
+        }
+        synchronized (cache) {
+            String notes = cache.get(ref);
+            if (notes != null) {
+                return notes;
+            }
+        }
+        return read(task.getUid(), ref);
+    }
+
+    private String read(String uid, String ref) {
+        String notes = pending.get(ref);
+        if (notes != null) {
+            return notes;
+        }
+        try {
+            return Files.readString(file(uid, ref), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't read the notes of task " + uid, e);
+        }
+    }
+
+    /**
+     * Save the notes of the task if they changed. The task refers to them at once, their file is written later
+     * on the executor.
+     *
+     * @return {@code true} if the notes changed.
+     */
+    public boolean save(Task task, String notes) {
+        String ref = changedRef(task, notes);
+        if (ref == null) {
+            return false;
+        }
+
+        if (!ref.isEmpty()) {
+            String uid = task.getUid();
+            String id = task.getId();
+            pending.put(ref, notes);
+            synchronized (cache) {
+                cache.put(ref, notes);
+            }
+            Runnable write = () -> {
+                try {
+                    write(uid, id, ref, notes);
+                } catch (UncheckedIOException e) {
+                    log.error("Can't save the notes of task {}.", id, e);
+                } finally {
+                    pending.remove(ref, notes);
+                }
+            };
+            try {
+                writer.execute(write);
+            } catch (RejectedExecutionException e) {
+                // Saved while stopping, after the persistence thread
+                write.run();
+            }
+        }
+        task.setNotesRef(ref);
+        task.setNotes(null);
+        return true;
+    }
+
+    /**
+     * @return the ref of the notes if they are not the ones of the task yet, {@code null} otherwise.
+     */
+    private static String changedRef(Task task, String notes) {
+        String ref = ref(notes);
+        if (ref.equals(task.getNotesRef()) && (task.getNotes() == null || task.getNotes().isEmpty())) {
+            return null;
+        }
+        return ref;
+    }
+
+    private void write(String uid, String id, String ref, String notes) {
+        try {
+            Path file = file(uid, ref);
+            if (!Files.exists(file)) {
+                Files.createDirectories(file.getParent());
+                Path tmp = file.resolveSibling(ref + ".tmp");
+                Files.writeString(tmp, notes, StandardCharsets.UTF_8);
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } else {
+                // Make it recent again, so it is not removed while referenced
+                Files.setLastModifiedTime(file, FileTime.from(Instant.now()));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Can't save the notes of task " + id, e);
+        }
+
+        synchronized (cache) {
+            cache.put(ref, notes);
+        }
+    }
+
+    /**
+     * Move the notes held in memory by the given tasks and their sub-tasks to the store, written before returning.
+     *
+     * @return the number of moved notes.
+     */
+    public int externalize(List<Task> tasks) {
+        int moved = 0;
+        for (Task task : tasks) {
+            if (task.getNotes() != null && !task.getNotes().isEmpty()) {
+                String ref = changedRef(task, task.getNotes());
+                if (ref != null) {
+                    write(task.getUid(), task.getId(), ref, task.getNotes());
+                    task.setNotesRef(ref);
+                    task.setNotes(null);
+                }
+                moved++;
+            }
+            moved += externalize(task.getSubTasks());
+        }
+        return moved;
+    }
+
+    /**
+     * Remove the notes files that are not referenced by the given tasks and older than the retention.
+     */
+    public void clean(Set<String> referenced) {
+        if (!Files.isDirectory(dir)) {
+            return;
+        }
+        Instant limit = Instant.now().minus(RETENTION);
+        try (Stream<Path> files = Files.walk(dir, 2)) {
+            files.filter(Files::isRegularFile)
+                    .filter(f -> !referenced.contains(f.getFileName().toString().replace(".md", "")))
+                    .filter(f -> lastModified(f).isBefore(limit))
+                    .forEach(f -> {
+                        try {
+                            Files.delete(f);
+                        } catch (IOException e) {
+                            log.warn("Can't delete {}.", f, e);
+                        }
+                    });
+        } catch (IOException e) {
+            log.warn("Can't clean {}.", dir, e);
+        }
+    }
+
+    private static Instant lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toInstant();
+        } catch (IOException e) {
+            return Instant.now();
+        }
+    }
+
+    private Path file(String uid, String ref) {
+        return dir.resolve(uid).resolve(ref + ".md");
+    }
+
+    /**
+     * @return the ref the given notes are saved with, as kept in {@link Task#getNotesRef()}.
+     */
+    public static String ref(String notes) {
+        return notes.isEmpty() ? "" : hash(notes);
+    }
+
+    /**
+     * @return the ref of the current notes of the task: the saved one, unless the notes are in memory and may
+     * have changed since.
+     */
+    public static String ref(Task task) {
+        return task.getNotes() != null ? ref(task.getNotes()) : task.getNotesRef();
+    }
+
+    private static String hash(String notes) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(digest.digest(notes.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
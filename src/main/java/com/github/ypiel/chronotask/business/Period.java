@@ -0,0 +1,30 @@
+package com.github.ypiel.chronotask.business;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.temporal.TemporalAdjusters;
+
+/**
+ * Day, ISO week (from monday), month or year containing a date.
+ */
+public enum Period {
+    DAY, WEEK, MONTH, YEAR;
+
+    public LocalDate from(LocalDate date) {
+        return switch (this) {
+            case DAY -> date;
+            case WEEK -> date.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+            case MONTH -> date.withDayOfMonth(1);
+            case YEAR -> date.withDayOfYear(1);
+        };
+    }
+
+    public LocalDate to(LocalDate date) {
+        return switch (this) {
+            case DAY -> date;
+            case WEEK -> date.with(TemporalAdjusters.nextOrSame(DayOfWeek.SUNDAY));
+            case MONTH -> date.with(TemporalAdjusters.lastDayOfMonth());
+            case YEAR -> date.with(TemporalAdjusters.lastDayOfYear());
+        };
+    }
+}
@@ -0,0 +1,411 @@
+package com.github.ypiel.chronotask.business;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.ypiel.chronotask.model.Task;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Persist the tasks on a dedicated thread.
+ * <p>
+ * Each change is appended to the {@link TaskJournal} as it happens, and the main task it belongs to is
+ * marked as changed. When a save is requested, only the files of the changed main tasks are rewritten in the
+ * {@link ShardedTaskStore}; the requests received during the coalescing delay end up in a single write.
+ * The journal then only loses the records appended before the snapshot was taken.
+ * Each file is written to a temporary file that then replaces the previous one, so a crash can't leave a
+ * truncated file behind.
+ */
+@Slf4j
+public class PersistenceService {
+
+    private static final Duration COALESCING_DELAY = Duration.ofSeconds(2);
+
+    private final Path legacyFile;
+    private final ObjectMapper mapper;
+    private final TaskJournal journal;
+    private final ShardedTaskStore store;
+    private final NotesStore notesStore;
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "chrono-task-persistence");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * uid of a task => uid of its main task.
+     */
+    private final Map<String, String> mainTaskOf = new ConcurrentHashMap<>();
+    private final AtomicReference<Set<String>> changed = new AtomicReference<>(ConcurrentHashMap.newKeySet());
+    private final AtomicBoolean changedAll = new AtomicBoolean(false);
+    /**
+     * Held to mark a change and enqueue its record, so the records counted by {@link #journaled} are the ones
+     * whose change was marked.
+     */
+    private final Object journalLock = new Object();
+    private long journaled = 0;
+    private Pending pending;
+    private final AtomicReference<List<Task>> toSave = new AtomicReference<>(List.of());
+    private LocalDate lastBackup = LocalDate.MIN;
+    private volatile boolean backups = true;
+
+    private final AtomicLong saveCount = new AtomicLong(0);
+    private final AtomicLong lastSaveMillis = new AtomicLong(0);
+    private final AtomicLong lastSaveBytes = new AtomicLong(0);
+
+    public PersistenceService(Path saveDir, ObjectMapper mapper) {
+        this.legacyFile = saveDir.resolve("chrono-task.json");
+        this.mapper = mapper;
+        this.journal = new TaskJournal(saveDir.resolve("chrono-task.journal"), mapper);
+        this.store = new ShardedTaskStore(saveDir.resolve("tasks"), mapper);
+        this.notesStore = new NotesStore(saveDir.resolve("notes"), executor);
+    }
+
+    /**
+     * @return the directory given by {@code -Dchrono.task.dir}, {@code ~/chrono-task} by default.
+     */
+    public static Path saveDir() {
+        return Paths.get(System.getProperty("chrono.task.dir", System.getProperty("user.home") + "/chrono-task"));
+    }
+
+    /**
+     * Keep or not a full backup of the tasks at startup and once a day, the command line doesn't.
+     */
+    public void setBackups(boolean backups) {
+        this.backups = backups;
+    }
+
+    public NotesStore getNotesStore() {
+        return notesStore;
+    }
+
+    /**
+     * Read the tasks, replay the journal over them and start a new journal.
+     * A single {@code chrono-task.json} file from a previous version is migrated to the sharded layout.
+     * Called once at startup, on the calling thread.
+     */
+    public List<Task> load() throws IOException {
+        long start = System.nanoTime();
+        JfrEvents.LoadEvent event = new JfrEvents.LoadEvent();
+        event.begin();
+        List<Task> tasks = new ArrayList<>();
+        boolean migrate = false;
+        if (store.exists()) {
+            tasks = new ArrayList<>(store.read());
+            event.bytes = store.getLastReadBytes();
+        } else if (Files.exists(legacyFile, LinkOption.NOFOLLOW_LINKS)) {
+            log.info("Migrate {} to one file per task.", legacyFile);
+            event.bytes = Files.size(legacyFile);
+            tasks = mapper.readValue(legacyFile.toFile(), mapper.getTypeFactory().constructCollectionType(List.class, Task.class));
+            migrate = true;
+        }
+        tasks.forEach(this::indexMainTask);
+
+        // Backup at start, of the tasks as read, written with their notes on the persistence thread
+        if (backups && !tasks.isEmpty()) {
+            List<Task> read = copy(tasks);
+            String suffix = ".start." + LocalDate.now().getDayOfYear();
+            executor.execute(() -> {
+                try {
+                    writeBackup(read, suffix);
+                } catch (IOException e) {
+                    log.warn("Can't write the backup at start.", e);
+                }
+            });
+        }
+
+        int replayed = journal.replay(tasks);
+        tasks.forEach(this::indexMainTask);
+        int externalized = notesStore.externalize(tasks);
+        if (externalized > 0) {
+            log.info("Notes of {} tasks moved to the notes store.", externalized);
+        }
+        // After the backup at start, which reads the notes
+        Set<String> notesRefs = notesRefs(tasks, new HashSet<>());
+        executor.execute(() -> notesStore.clean(notesRefs));
+        if (replayed > 0 || externalized > 0 || migrate) {
+            List<Task> loaded = removeInvalidTasks(tasks);
+            journal.compact(() -> store.write(loaded, null));
+        }
+        if (migrate) {
+            Files.move(legacyFile, legacyFile.resolveSibling(legacyFile.getFileName() + ".migrated"), StandardCopyOption.REPLACE_EXISTING);
+        }
+        Metrics.timer("persistence.load").record(System.nanoTime() - start);
+        event.tasks = tasks.size();
+        event.commit();
+        return tasks;
+    }
+
+    public void task(Task parent, Task task) {
+        String mainTask = parent == null ? task.getUid() : mainTaskOf.getOrDefault(parent.getUid(), parent.getUid());
+        mainTaskOf.put(task.getUid(), mainTask);
+        journal(task, () -> journal.task(parent, task));
+    }
+
+    public void notes(Task task) {
+        journal(task, () -> journal.notes(task));
+    }
+
+    public void duration(Task task, long epochDay, long millis) {
+        journal(task, () -> journal.duration(task, epochDay, millis));
+    }
+
+    public void dayNotes(Task task, Task.DurationByDate durationByDate) {
+        journal(task, () -> journal.dayNotes(task, durationByDate));
+    }
+
+    public boolean isDirty() {
+        return changedAll.get() || !changed.get().isEmpty();
+    }
+
+    /**
+     * Ask for the tasks to be saved. Nothing is written if nothing changed since the last save,
+     * and the requests received before the save runs are coalesced into one write.
+     * <p>
+     * The snapshot is taken on the calling thread, after the position of the journal it covers is recorded:
+     * a change done meanwhile stays in the journal until the next save. The tasks are written on the
+     * persistence thread, no other thread may modify them: give a {@link DurationManager#snapshot(List) snapshot}
+     * of the tasks being tracked. Called from a single thread.
+     */
+    public void requestSave(Supplier<List<Task>> snapshot) {
+        if (isDirty() && checkpoint(snapshot)) {
+            executor.schedule(this::save, COALESCING_DELAY.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Save the tasks if needed and wait for all the pending writes before stopping the persistence thread.
+     * As for {@link #requestSave(Supplier)}, no other thread may modify them.
+     */
+    public void close(Supplier<List<Task>> snapshot) throws IOException {
+        checkpoint(snapshot);
+        executor.execute(this::save);
+        if (backups) {
+            executor.execute(this::dailyBackup);
+        }
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+                log.error("Persistence thread didn't stop in time.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        journal.close();
+    }
+
+    public long getSaveCount() {
+        return saveCount.get();
+    }
+
+    public long getLastSaveMillis() {
+        return lastSaveMillis.get();
+    }
+
+    public long getLastSaveBytes() {
+        return lastSaveBytes.get();
+    }
+
+    private void journal(Task task, Runnable append) {
+        String mainTask = mainTaskOf.get(task.getUid());
+        synchronized (journalLock) {
+            if (mainTask == null) {
+                changedAll.set(true);
+            } else {
+                changed.get().add(mainTask);
+            }
+            journaled++;
+            executor.execute(append);
+        }
+    }
+
+    /**
+     * Take the changes marked so far and the position of their last record in the journal, then the snapshot
+     * holding them, and merge them in the pending save.
+     *
+     * @return {@code true} if no save was pending.
+     */
+    private boolean checkpoint(Supplier<List<Task>> snapshot) {
+        boolean all;
+        Set<String> marked;
+        long upTo;
+        synchronized (journalLock) {
+            all = changedAll.getAndSet(false);
+            marked = changed.getAndSet(ConcurrentHashMap.newKeySet());
+            upTo = journaled;
+        }
+        List<Task> tasks = List.copyOf(snapshot.get());
+        synchronized (journalLock) {
+            if (pending == null) {
+                pending = new Pending(tasks, all, marked, upTo);
+                return true;
+            }
+            marked.addAll(pending.toWrite());
+            pending = new Pending(tasks, all || pending.all(), marked, upTo);
+            return false;
+        }
+    }
+
+    private void save() {
+        Pending save;
+        synchronized (journalLock) {
+            save = pending;
+            pending = null;
+        }
+        if (save == null) {
+            return;
+        }
+        toSave.set(save.tasks());
+        boolean all = save.all();
+        Set<String> toWrite = save.toWrite();
+        if (!all && toWrite.isEmpty()) {
+            return;
+        }
+
+        List<Task> tasks = removeInvalidTasks(save.tasks());
+        long start = System.nanoTime();
+        JfrEvents.SaveEvent event = new JfrEvents.SaveEvent();
+        event.begin();
+        try {
+            journal.compact(() -> lastSaveBytes.set(store.write(tasks, all ? null : toWrite)), save.upTo());
+            saveCount.incrementAndGet();
+            lastSaveMillis.set(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            Metrics.timer("persistence.save").record(System.nanoTime() - start);
+            Metrics.counter("persistence.save.bytes").add(lastSaveBytes.get());
+            event.tasks = tasks.size();
+            event.written = all ? tasks.size() : toWrite.size();
+            event.bytes = lastSaveBytes.get();
+            event.commit();
+            log.info("Saved {} of {} tasks in {} ms ({} bytes).", all ? tasks.size() : toWrite.size(), tasks.size(), lastSaveMillis.get(), lastSaveBytes.get());
+        } catch (IOException e) {
+            log.error("Can't save tasks.", e);
+            restoreChanged(all, toWrite);
+            return;
+        }
+
+        if (backups && !LocalDate.now().equals(lastBackup)) {
+            dailyBackup();
+        }
+    }
+
+    private void restoreChanged(boolean all, Set<String> toWrite) {
+        if (all) {
+            changedAll.set(true);
+        }
+        changed.get().addAll(toWrite);
+    }
+
+    /**
+     * Keep one full copy of the tasks per day of the year, in the format of {@code chrono-task.json}.
+     */
+    private void dailyBackup() {
+        try {
+            writeBackup(removeInvalidTasks(toSave.get()), "." + LocalDate.now().getDayOfYear());
+            lastBackup = LocalDate.now();
+        } catch (IOException e) {
+            log.warn("Can't write the daily backup.", e);
+        }
+    }
+
+    private void writeBackup(List<Task> tasks, String suffix) throws IOException {
+        Files.createDirectories(legacyFile.getParent());
+        Path backup = legacyFile.resolveSibling(legacyFile.getFileName() + suffix);
+        List<Task> withNotes = withNotes(tasks);
+        ShardedTaskStore.writeAtomically(backup, out -> mapper.writerWithDefaultPrettyPrinter()
+                .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+                .writeValue(out, withNotes));
+    }
+
+    /**
+     * @return copies of the tasks, with their histories.
+     */
+    private static List<Task> copy(List<Task> tasks) {
+        List<Task> copies = new ArrayList<>(tasks.size());
+        for (Task task : tasks) {
+            copies.add(new Task(task.getUid(), task.getOrder(), task.getId(), task.getShortDescription(),
+                    task.getNotes(), task.getNotesRef(), task.getStatus(), List.copyOf(task.getTags()),
+                    copy(task.getSubTasks()), task.getDurationsByDate().copy(), task.getAutoTaskAction()));
+        }
+        return copies;
+    }
+
+    /**
+     * @return copies of the tasks holding their notes, so a backup is restored whatever notes files have been
+     * removed from the store since.
+     */
+    private List<Task> withNotes(List<Task> tasks) {
+        List<Task> copies = new ArrayList<>(tasks.size());
+        for (Task task : tasks) {
+            String notes = null;
+            String notesRef = task.getNotesRef();
+            try {
+                notes = notesStore.read(task);
+                notesRef = "";
+            } catch (UncheckedIOException e) {
+                log.warn("Notes of {} not in the backup.", task.getId(), e);
+            }
+            copies.add(new Task(task.getUid(), task.getOrder(), task.getId(), task.getShortDescription(), notes,
+                    notesRef, task.getStatus(), task.getTags(), withNotes(task.getSubTasks()),
+                    task.getDurationsByDate(), task.getAutoTaskAction()));
+        }
+        return copies;
+    }
+
+    private static Set<String> notesRefs(List<Task> tasks, Set<String> refs) {
+        for (Task task : tasks) {
+            refs.add(task.getNotesRef());
+            notesRefs(task.getSubTasks(), refs);
+        }
+        return refs;
+    }
+
+    private void indexMainTask(Task mainTask) {
+        mainTaskOf.put(mainTask.getUid(), mainTask.getUid());
+        indexSubTasks(mainTask.getSubTasks(), mainTask.getUid());
+    }
+
+    private void indexSubTasks(List<Task> subTasks, String mainTask) {
+        for (Task task : subTasks) {
+            mainTaskOf.put(task.getUid(), mainTask);
+            indexSubTasks(task.getSubTasks(), mainTask);
+        }
+    }
+
+    /**
+     * Snapshot to save, holding the changes of the main tasks to write and of the journal records up to {@code upTo}.
+     */
+    private record Pending(List<Task> tasks, boolean all, Set<String> toWrite, long upTo) {
+    }
+
+    private static List<Task> removeInvalidTasks(List<Task> tasks) {
+        return tasks.stream()
+                .filter(Task::isValid)
+                .map(task -> task.withSubTasks(removeInvalidTasks(task.getSubTasks())))
+                .toList();
+    }
+
+}
@@ -0,0 +1,230 @@
+package com.github.ypiel.chronotask.business;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.github.ypiel.chronotask.model.Status;
+import com.github.ypiel.chronotask.model.Task;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Store each main task, with its sub-tasks, in its own file of the {@code tasks} directory.
+ * <p>
+ * A small manifest keeps the order of the main tasks and their status, so a save only has to rewrite the
+ * files of the tasks that changed, plus the manifest when the list of main tasks changed.
+ * <p>
+ * Task files are written in the {@link Format#BINARY} format by default, the {@code chrono.task.format} system
+ * property can be set to {@code json} to get readable files. Both formats can be read whatever the setting.
+ */
+@Slf4j
+public class ShardedTaskStore {
+
+    private static final int VERSION = 1;
+
+    private final Path dir;
+    private final Path manifestFile;
+    private final ObjectMapper mapper;
+    private final ObjectWriter writer;
+    private final TaskBinaryCodec codec = new TaskBinaryCodec();
+    private final Format format;
+
+    private Manifest lastManifest;
+    private long lastReadBytes;
+
+    public ShardedTaskStore(Path dir, ObjectMapper mapper) {
+        this(dir, mapper, Format.valueOf(System.getProperty("chrono.task.format", "binary").toUpperCase(Locale.ROOT)));
+    }
+
+    public ShardedTaskStore(Path dir, ObjectMapper mapper, Format format) {
+        this.dir = dir;
+        this.format = format;
+        this.manifestFile = dir.resolve("manifest.json");
+        this.mapper = mapper;
+        this.writer = mapper.writerWithDefaultPrettyPrinter().without(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    }
+
+    public boolean exists() {
+        return Files.exists(manifestFile);
+    }
+
+    public List<Task> read() throws IOException {
+        Manifest manifest = mapper.readValue(manifestFile.toFile(), Manifest.class);
+        List<Task> tasks = new ArrayList<>(manifest.getTasks().size());
+        long bytes = Files.size(manifestFile);
+        for (Entry entry : manifest.getTasks()) {
+            Path shard = shardFile(entry.getUid(), format);
+            Path other = shardFile(entry.getUid(), format.other());
+            if (Files.exists(shard)) {
+                tasks.add(read(shard, format));
+                bytes += Files.size(shard);
+            } else if (Files.exists(other)) {
+                tasks.add(read(other, format.other()));
+                bytes += Files.size(other);
+            } else {
+                log.error("Missing file {} for task {}.", shard, entry.getUid());
+            }
+        }
+        Metrics.counter("persistence.load.bytes").add(bytes);
+        lastReadBytes = bytes;
+        lastManifest = manifest;
+        return tasks;
+    }
+
+    /**
+     * @return the size of the files of the last {@link #read()}, the manifest and the tasks.
+     */
+    public long getLastReadBytes() {
+        return lastReadBytes;
+    }
+
+    /**
+     * Write the files of the given main tasks having their uid in {@code changed}, and the manifest if needed.
+     *
+     * A full write also removes the files of the main tasks no longer in the manifest.
+     *
+     * @param changed uids of the main tasks to write, or {@code null} to write all of them.
+     * @return the number of written bytes.
+     */
+    public long write(List<Task> tasks, Set<String> changed) throws IOException {
+        Files.createDirectories(dir);
+        long bytes = 0;
+        int shards = 0;
+        for (Task task : tasks) {
+            if (changed == null || changed.contains(task.getUid())) {
+                bytes += writeAtomically(shardFile(task.getUid(), format), out -> write(task, out));
+                Files.deleteIfExists(shardFile(task.getUid(), format.other()));
+                shards++;
+            }
+        }
+
+        Manifest manifest = new Manifest(VERSION, tasks.stream()
+                .map(t -> new Entry(t.getUid(), t.getOrder(), t.getStatus()))
+                .toList());
+        if (!manifest.equals(lastManifest)) {
+            bytes += writeAtomically(manifestFile, out -> writer.writeValue(out, manifest));
+            lastManifest = manifest;
+        }
+        if (changed == null) {
+            deleteOrphans(tasks.stream().map(Task::getUid).collect(Collectors.toSet()));
+        }
+        log.debug("{} of {} task files written.", shards, tasks.size());
+        return bytes;
+    }
+
+    private void deleteOrphans(Set<String> uids) throws IOException {
+        List<Path> orphans;
+        try (Stream<Path> files = Files.list(dir)) {
+            orphans = files.filter(f -> !f.equals(manifestFile))
+                    .filter(f -> {
+                        String name = f.getFileName().toString();
+                        return Arrays.stream(Format.values())
+                                .anyMatch(ff -> name.endsWith(ff.getExtension())
+                                        && !uids.contains(name.substring(0, name.length() - ff.getExtension().length())));
+                    })
+                    .toList();
+        }
+        for (Path orphan : orphans) {
+            try {
+                Files.delete(orphan);
+                log.info("Task file {} removed, its task is no longer in the manifest.", orphan.getFileName());
+            } catch (IOException e) {
+                log.warn("Can't remove the task file {}: {}", orphan, e.getMessage());
+            }
+        }
+    }
+
+    private Task read(Path shard, Format shardFormat) throws IOException {
+        return switch (shardFormat) {
+            case JSON -> mapper.readValue(shard.toFile(), Task.class);
+            case BINARY -> codec.read(shard);
+        };
+    }
+
+    private void write(Task task, OutputStream out) throws IOException {
+        switch (format) {
+            case JSON -> writer.writeValue(out, task);
+            case BINARY -> codec.write(task, out);
+        }
+    }
+
+    private Path shardFile(String uid, Format shardFormat) {
+        return dir.resolve(uid + shardFormat.getExtension());
+    }
+
+    /**
+     * Write a file through a temporary file forced to disk and then moved in place of the target.
+     *
+     * @return the number of written bytes.
+     */
+    static long writeAtomically(Path target, Content content) throws IOException {
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        long size;
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            content.write(Channels.newOutputStream(channel));
+            channel.force(true);
+            size = channel.size();
+        }
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return size;
+    }
+
+    public enum Format {
+        JSON(".json"), BINARY(".bin");
+
+        private final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+
+        Format other() {
+            return this == JSON ? BINARY : JSON;
+        }
+    }
+
+    interface Content {
+        void write(OutputStream out) throws IOException;
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Manifest {
+        private int version;
+        private List<Entry> tasks = new ArrayList<>();
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Entry {
+        private String uid;
+        private int order;
+        private Status status;
+    }
+
+}
@@ -0,0 +1,564 @@
+package com.github.ypiel.chronotask.business;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.ypiel.chronotask.model.Task;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Synchronize the time and the tasks between devices through a shared directory, e.g. a folder synchronized by
+ * a file sharing service, with a {@link SyncState}.
+ * <p>
+ * Each device appends its changes to its own log, {@code <device>.jsonl}, so no two devices write the same
+ * file: a line holds the counters of a task for the days changed since the previous synchronization, or the
+ * fields of a task. The logs of all the devices are mirrored in {@code sync} of the save directory, so the state
+ * is known without the shared directory: the own log is written there first and copied to the shared directory
+ * when it is available, the new lines of the other logs are read from the size of their mirror.
+ * <p>
+ * The durations of the tasks stay the ones shown and saved: the time tracked here is added to the counter of
+ * the device on the next synchronization, from the difference between the duration of the day and the state,
+ * and the time received from the other devices is added to the durations. New tasks received are created, the
+ * fields changed elsewhere are set on the tasks, on the executor of the UI.
+ * <p>
+ * The state and the pending changes are guarded by the monitor of the service, only held to modify them: the
+ * files are read and written out of it, so the changes of the UI never wait for the shared directory.
+ */
+@Slf4j
+public class SyncService {
+
+    private final Path localDir;
+    private final Path sharedDir;
+    private final String device;
+    private final ObjectMapper mapper;
+    private final DurationManager durationManager;
+    private final Executor uiExecutor;
+
+    private final SyncState state = new SyncState();
+    // The tasks by uid and the uid of their parent, for the changes received
+    private final Map<String, Task> tasks = new ConcurrentHashMap<>();
+    private final Map<String, String> parents = new ConcurrentHashMap<>();
+    // The days whose duration changed since the previous synchronization
+    private final Set<Day> changedDays = ConcurrentHashMap.newKeySet();
+    // The changes of this device not written to its log yet
+    private final Map<Counter, Set<Long>> pendingCounters = new LinkedHashMap<>();
+    private final Set<String> pendingFields = new LinkedHashSet<>();
+
+    // Held by a synchronization from start to end, so the logs are written by one at a time
+    private final Object exchangeLock = new Object();
+    // The lines taken from the pending changes whose writing failed, written first next time
+    private byte[] unwritten = new byte[0];
+
+    private volatile Listener listener = (parent, task, created) -> {
+    };
+
+    /**
+     * @param sharedDir the shared directory, {@code null} to keep the changes in the save directory until it is
+     *                  given.
+     */
+    public SyncService(Path saveDir, Path sharedDir, String device, ObjectMapper mapper,
+                       DurationManager durationManager, Executor uiExecutor) {
+        this.localDir = saveDir.resolve("sync");
+        this.sharedDir = sharedDir;
+        this.device = device;
+        this.mapper = mapper;
+        this.durationManager = durationManager;
+        this.uiExecutor = uiExecutor;
+    }
+
+    /**
+     * @return the shared directory given by {@code -Dchrono.task.sync.dir}, {@code null} if there is none.
+     */
+    public static Path sharedDir() {
+        String dir = System.getProperty("chrono.task.sync.dir");
+        return dir == null || dir.isBlank() ? null : Paths.get(dir);
+    }
+
+    /**
+     * @return the name of this device, given by {@code -Dchrono.task.device} or generated once from the host
+     * name and kept in the save directory.
+     */
+    public static String device(Path saveDir) throws IOException {
+        String device = System.getProperty("chrono.task.device");
+        if (device != null && !device.isBlank()) {
+            return device;
+        }
+        Path file = saveDir.resolve("sync").resolve("device");
+        if (Files.exists(file)) {
+            return Files.readString(file, StandardCharsets.UTF_8).strip();
+        }
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (IOException e) {
+            host = "device";
+        }
+        device = host.replaceAll("[^A-Za-z0-9_-]", "_") + "-" + UUID.randomUUID().toString().substring(0, 8);
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, device, StandardCharsets.UTF_8);
+        return device;
+    }
+
+    public String getDevice() {
+        return device;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Read the mirrored logs, then reconcile them with the tasks: the time tracked here while not synchronized,
+     * e.g. by the command line, is added to the counter of the device, the time received but not added to the
+     * durations yet is added. The first time, the time and the fields of the tasks are logged as the ones of
+     * {@link SyncState#LEGACY}.
+     */
+    public void start(List<Task> mainTasks) throws IOException {
+        synchronized (exchangeLock) {
+            long start = System.nanoTime();
+            Files.createDirectories(localDir);
+            mainTasks.forEach(task -> index(null, task));
+
+            boolean first = !Files.exists(log(localDir, device));
+            Map<String, List<Line>> mirrored = new LinkedHashMap<>();
+            try (DirectoryStream<Path> logs = Files.newDirectoryStream(localDir, "*.jsonl")) {
+                for (Path log : logs) {
+                    mirrored.put(deviceOf(log), read(log, 0, Files.size(log)));
+                }
+            }
+
+            byte[] lines;
+            int taskCount;
+            synchronized (this) {
+                mirrored.forEach((from, read) -> apply(from, read, false));
+                if (first) {
+                    logLegacy();
+                } else {
+                    reconcile();
+                }
+                lines = takePending();
+                taskCount = state.taskCount();
+            }
+            writePending(lines);
+            log.info("Synchronization of {} started with {} tasks in {} ms.", device, taskCount,
+                    (System.nanoTime() - start) / 1_000_000);
+        }
+    }
+
+    /**
+     * Log the time and the fields of the tasks as the ones of {@link SyncState#LEGACY}.
+     */
+    private void logLegacy() {
+        tasks.values().forEach(task -> {
+            Task parent = tasks.get(parents.getOrDefault(task.getUid(), ""));
+            state.merge(fields(parent, task, 0, SyncState.LEGACY));
+            pendingFields.add(task.getUid());
+            synchronized (durationManager.getRollups()) {
+                for (int i = 0; i < task.getDurationsByDate().size(); i++) {
+                    long epochDay = task.getDurationsByDate().epochDayAt(i);
+                    state.add(task.getUid(), SyncState.LEGACY, epochDay, task.getDurationsByDate().millisAt(i));
+                    pending(task.getUid(), SyncState.LEGACY, epochDay);
+                }
+            }
+        });
+    }
+
+    /**
+     * The duration of a day of the task changed, here or when received.
+     */
+    public void duration(Task task, long epochDay) {
+        changedDays.add(new Day(task.getUid(), epochDay));
+    }
+
+    /**
+     * The fields of the task may have changed, on the UI thread.
+     *
+     * @param parent the parent of the task, {@code null} for a main task.
+     */
+    public void task(Task parent, Task task) {
+        index(parent, task);
+        SyncState.Fields fields = fields(parent, task, System.currentTimeMillis(), device);
+        synchronized (this) {
+            if (!fields.sameValues(state.fields(task.getUid()))) {
+                state.merge(fields);
+                pendingFields.add(task.getUid());
+            }
+        }
+    }
+
+    /**
+     * Write the changes of this device to its log, copy it to the shared directory and apply the changes of the
+     * other devices.
+     */
+    public void sync() {
+        synchronized (exchangeLock) {
+            long start = System.nanoTime();
+            try {
+                exchange(start);
+            } finally {
+                Metrics.timer("sync.round").record(System.nanoTime() - start);
+            }
+        }
+    }
+
+    private void exchange(long start) {
+        try {
+            byte[] lines;
+            synchronized (this) {
+                for (Day day : List.copyOf(changedDays)) {
+                    changedDays.remove(day);
+                    Task task = tasks.get(day.uid());
+                    if (task != null) {
+                        record(task, day.epochDay(), false);
+                    }
+                }
+                lines = takePending();
+            }
+            writePending(lines);
+            if (sharedDir == null || !Files.isDirectory(sharedDir)) {
+                return;
+            }
+            export();
+            int received = 0;
+            try (DirectoryStream<Path> logs = Files.newDirectoryStream(sharedDir, "*.jsonl")) {
+                for (Path log : logs) {
+                    String from = deviceOf(log);
+                    if (!from.equals(device)) {
+                        received += receive(from, log);
+                    }
+                }
+            }
+            Metrics.counter("sync.received").add(received);
+            if (received > 0) {
+                log.info("{} changes received in {} ms.", received, (System.nanoTime() - start) / 1_000_000);
+            }
+        } catch (IOException | UncheckedIOException e) {
+            log.warn("Can't synchronize with {}.", sharedDir, e);
+        }
+    }
+
+    /**
+     * Compare the durations of all the days of all the tasks with the state.
+     */
+    private void reconcile() {
+        for (Task task : tasks.values()) {
+            Set<Long> days = new TreeSet<>();
+            synchronized (durationManager.getRollups()) {
+                for (int i = 0; i < task.getDurationsByDate().size(); i++) {
+                    days.add(task.getDurationsByDate().epochDayAt(i));
+                }
+            }
+            for (long epochDay : state.days(task.getUid())) {
+                days.add(epochDay);
+            }
+            days.forEach(epochDay -> record(task, epochDay, true));
+        }
+        for (SyncState.Fields fields : state.fields()) {
+            if (!tasks.containsKey(fields.uid())) {
+                create(fields);
+            }
+        }
+    }
+
+    /**
+     * Bring a day of the task in line with the state: more time than in the state was tracked here. Less time
+     * was removed here, or at start was received and not added yet, e.g. when the application was killed.
+     */
+    private void record(Task task, long epochDay, boolean atStart) {
+        long millis;
+        synchronized (durationManager.getRollups()) {
+            millis = task.getDurationsByDate().getMillis(epochDay);
+        }
+        long difference = millis - state.value(task.getUid(), epochDay);
+        if (difference < 0 && atStart) {
+            durationManager.addMillis(task, epochDay, -difference);
+        } else if (difference != 0) {
+            state.add(task.getUid(), device, epochDay, difference);
+            pending(task.getUid(), device, epochDay);
+        }
+    }
+
+    /**
+     * @return the lines of the pending changes, which are no longer pending.
+     */
+    private byte[] takePending() {
+        if (pendingFields.isEmpty() && pendingCounters.isEmpty()) {
+            return new byte[0];
+        }
+        ByteArrayOutputStream lines = new ByteArrayOutputStream();
+        // The fields first, so a new task exists when its time is received
+        for (String uid : pendingFields) {
+            writeLine(lines, new Line(null, state.fields(uid)));
+        }
+        pendingCounters.forEach((counter, days) -> {
+            long[] epochDays = days.stream().mapToLong(Long::longValue).toArray();
+            writeLine(lines, new Line(state.counters(counter.uid(), counter.device(), epochDays), null));
+        });
+        pendingFields.clear();
+        pendingCounters.clear();
+        return lines.toByteArray();
+    }
+
+    /**
+     * Append the lines of the pending changes to the mirrored log of this device, after the ones not written
+     * the previous time.
+     */
+    private void writePending(byte[] lines) throws IOException {
+        byte[] toWrite = unwritten;
+        if (lines.length > 0) {
+            toWrite = Arrays.copyOf(unwritten, unwritten.length + lines.length);
+            System.arraycopy(lines, 0, toWrite, unwritten.length, lines.length);
+        }
+        if (toWrite.length == 0) {
+            return;
+        }
+        unwritten = toWrite;
+        append(log(localDir, device), toWrite);
+        unwritten = new byte[0];
+    }
+
+    /**
+     * Copy the part of the log of this device not copied yet to the shared directory.
+     */
+    private void export() throws IOException {
+        Path local = log(localDir, device);
+        Path shared = log(sharedDir, device);
+        Path offsetFile = localDir.resolve(device + ".exported");
+        long exported = Files.exists(shared) && Files.exists(offsetFile)
+                ? Long.parseLong(Files.readString(offsetFile, StandardCharsets.UTF_8).strip()) : 0;
+        long size = Files.exists(local) ? Files.size(local) : 0;
+        if (exported >= size) {
+            return;
+        }
+        byte[] bytes = readBytes(local, exported, size);
+        if (exported == 0) {
+            Files.deleteIfExists(shared);
+        }
+        append(shared, bytes);
+        Files.writeString(offsetFile, Long.toString(size), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Mirror and apply the lines of the log of a device not read yet.
+     *
+     * @return the number of lines read.
+     */
+    private int receive(String from, Path log) throws IOException {
+        Path mirror = log(localDir, from);
+        long offset = Files.exists(mirror) ? Files.size(mirror) : 0;
+        long size = Files.size(log);
+        if (size <= offset) {
+            return 0;
+        }
+        byte[] bytes = readBytes(log, offset, size);
+        // Only the complete lines, the log may be being copied
+        int end = bytes.length;
+        while (end > 0 && bytes[end - 1] != '\n') {
+            end--;
+        }
+        if (end == 0) {
+            return 0;
+        }
+        byte[] lines = end == bytes.length ? bytes : Arrays.copyOf(bytes, end);
+        append(mirror, lines);
+        List<Line> received = parse(lines);
+        synchronized (this) {
+            apply(from, received, true);
+        }
+        return received.size();
+    }
+
+    /**
+     * Merge the lines of the log of a device into the state.
+     *
+     * @param toTasks {@code true} to also add the time received to the durations and apply the fields.
+     */
+    private void apply(String from, List<Line> lines, boolean toTasks) {
+        for (Line line : lines) {
+            if (line.fields() != null) {
+                boolean newer = state.merge(line.fields());
+                if (newer && toTasks) {
+                    SyncState.Fields fields = line.fields();
+                    Task task = tasks.get(fields.uid());
+                    if (task == null) {
+                        create(fields);
+                    } else {
+                        Task parent = tasks.get(parents.getOrDefault(task.getUid(), ""));
+                        uiExecutor.execute(() -> {
+                            set(task, fields);
+                            listener.onTaskReceived(parent, task, false);
+                        });
+                    }
+                }
+            }
+            SyncState.Counters counters = line.counters();
+            if (counters != null) {
+                if (!counters.device().equals(from) && !counters.device().equals(SyncState.LEGACY)) {
+                    log.warn("Ignored counters of {} in the log of {}.", counters.device(), from);
+                    continue;
+                }
+                Map<Long, Long> changes = state.merge(counters);
+                Task task = tasks.get(counters.uid());
+                if (toTasks && task != null) {
+                    changes.forEach((epochDay, change) -> durationManager.addMillis(task, epochDay, change));
+                }
+            }
+        }
+    }
+
+    /**
+     * Create a task received from another device, with its time in the state; it is added to its parent on the
+     * executor of the UI.
+     */
+    private void create(SyncState.Fields fields) {
+        if (fields.parent() != null && !tasks.containsKey(fields.parent()) && state.fields(fields.parent()) != null) {
+            create(state.fields(fields.parent()));
+        }
+        Task task = new Task();
+        task.setUid(fields.uid());
+        set(task, fields);
+        tasks.put(task.getUid(), task);
+        if (fields.parent() != null) {
+            parents.put(task.getUid(), fields.parent());
+        }
+        for (long epochDay : state.days(task.getUid())) {
+            durationManager.addMillis(task, epochDay, state.value(task.getUid(), epochDay));
+        }
+        Task parent = fields.parent() == null ? null : tasks.get(fields.parent());
+        uiExecutor.execute(() -> {
+            if (parent != null) {
+                parent.getSubTasks().add(task);
+            }
+            listener.onTaskReceived(parent, task, true);
+        });
+    }
+
+    private void index(Task parent, Task task) {
+        tasks.put(task.getUid(), task);
+        if (parent != null) {
+            parents.put(task.getUid(), parent.getUid());
+        }
+        for (Task subTask : task.getSubTasks()) {
+            index(task, subTask);
+        }
+    }
+
+    private static SyncState.Fields fields(Task parent, Task task, long timestamp, String device) {
+        return new SyncState.Fields(task.getUid(), parent == null ? null : parent.getUid(), task.getOrder(),
+                task.getId(), task.getShortDescription(), task.getStatus(), List.copyOf(task.getTags()), timestamp,
+                device);
+    }
+
+    private static void set(Task task, SyncState.Fields fields) {
+        task.setOrder(fields.order());
+        task.setId(fields.id());
+        task.setShortDescription(fields.shortDescription());
+        task.setStatus(fields.status());
+        task.setTags(new ArrayList<>(fields.tags()));
+    }
+
+    private void pending(String uid, String device, long epochDay) {
+        pendingCounters.computeIfAbsent(new Counter(uid, device), c -> new TreeSet<>()).add(epochDay);
+    }
+
+    private List<Line> read(Path log, long from, long to) throws IOException {
+        return parse(readBytes(log, from, to));
+    }
+
+    private List<Line> parse(byte[] bytes) throws IOException {
+        List<Line> lines = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] == '\n') {
+                if (i > start) {
+                    lines.add(mapper.readValue(bytes, start, i - start, Line.class));
+                }
+                start = i + 1;
+            }
+        }
+        return lines;
+    }
+
+    private void writeLine(OutputStream out, Line line) {
+        try {
+            out.write(mapper.writeValueAsBytes(line));
+            out.write('\n');
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static byte[] readBytes(Path file, long from, long to) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+             InputStream in = Channels.newInputStream(channel.position(from))) {
+            return in.readNBytes((int) (to - from));
+        }
+    }
+
+    private static void append(Path file, byte[] bytes) throws IOException {
+        Files.createDirectories(file.getParent());
+        try (OutputStream out = Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            out.write(bytes);
+        }
+    }
+
+    private static Path log(Path dir, String device) {
+        return dir.resolve(device + ".jsonl");
+    }
+
+    private static String deviceOf(Path log) {
+        String name = log.getFileName().toString();
+        return name.substring(0, name.length() - ".jsonl".length());
+    }
+
+    /**
+     * Notified on the executor of the UI of the tasks received from another device.
+     */
+    public interface Listener {
+        /**
+         * @param parent  the parent of the task, {@code null} for a main task.
+         * @param created {@code true} if the task is new, else its fields changed.
+         */
+        void onTaskReceived(Task parent, Task task, boolean created);
+    }
+
+    private record Day(String uid, long epochDay) {
+    }
+
+    private record Counter(String uid, String device) {
+    }
+
+    /**
+     * A line of a log: the counters or the fields of a task.
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    record Line(SyncState.Counters counters, SyncState.Fields fields) {
+    }
+
+}
@@ -0,0 +1,277 @@
+package com.github.ypiel.chronotask.business;
+
+import com.github.ypiel.chronotask.model.DurationHistory;
+import com.github.ypiel.chronotask.model.Status;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The time and the tasks of all the devices, as conflict-free replicated data types: two states merged in any
+ * order, any number of times, give the same result.
+ * <p>
+ * The time of a task for a day is a counter per device: each device only changes its own counter, and a merge
+ * keeps the greatest value seen of each one, so no time is lost or counted twice whatever the order the changes
+ * arrive in. As a duration can also be set lower by hand, a counter is a pair of growing values, the time added
+ * and the time removed, and the time of the day is the sum over the devices of the added minus the removed time.
+ * The counters of a task and a device are held as two {@link DurationHistory}, so merging two histories is a
+ * merge of sorted arrays.
+ * <p>
+ * The fields of a task are a last-writer-wins register: the most recent change wins, the greatest device on a
+ * tie.
+ * <p>
+ * Not thread-safe, the {@link SyncService} holds its lock.
+ */
+public class SyncState {
+
+    /**
+     * The device of the time tracked before the synchronization was enabled: all the devices give it the same
+     * time when they start from a copy of the same tasks, the merge keeps it once.
+     */
+    public static final String LEGACY = "legacy";
+
+    private final Map<String, Map<String, Counter>> counters = new HashMap<>();
+    private final Map<String, Fields> fields = new HashMap<>();
+
+    /**
+     * @return the time of the task for the day, over all the devices.
+     */
+    public long value(String uid, long epochDay) {
+        Map<String, Counter> byDevice = counters.get(uid);
+        if (byDevice == null) {
+            return 0;
+        }
+        long value = 0;
+        for (Counter counter : byDevice.values()) {
+            value += counter.added().getMillis(epochDay) - counter.removed().getMillis(epochDay);
+        }
+        return value;
+    }
+
+    /**
+     * Change the time of the task for the day by the given amount, on the counter of the device.
+     */
+    public void add(String uid, String device, long epochDay, long toAdd) {
+        if (toAdd == 0) {
+            return;
+        }
+        Counter counter = counter(uid, device);
+        if (toAdd > 0) {
+            counter.added().addMillis(epochDay, toAdd);
+        } else {
+            counter.removed().addMillis(epochDay, -toAdd);
+        }
+    }
+
+    /**
+     * @return the counter of the task on the device, as its days and its added and removed time per day.
+     */
+    public Counters counters(String uid, String device, long[] epochDays) {
+        Counter counter = counter(uid, device);
+        long[] added = new long[epochDays.length];
+        long[] removed = new long[epochDays.length];
+        for (int i = 0; i < epochDays.length; i++) {
+            added[i] = counter.added().getMillis(epochDays[i]);
+            removed[i] = counter.removed().getMillis(epochDays[i]);
+        }
+        return new Counters(uid, device, epochDays, added, removed);
+    }
+
+    /**
+     * Merge counters received from a device.
+     *
+     * @return the days whose time changed, with the change.
+     */
+    public Map<Long, Long> merge(Counters received) {
+        Counter counter = counter(received.uid(), received.device());
+        Map<Long, Long> changes = new LinkedHashMap<>();
+        long[] days = received.epochDays();
+        for (int i = 0; i < days.length; i++) {
+            long change = max(counter.added(), days[i], received.added()[i])
+                    - max(counter.removed(), days[i], received.removed()[i]);
+            if (change != 0) {
+                changes.merge(days[i], change, Long::sum);
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * Merge all the counters of another state, e.g. the one read from the logs of another directory.
+     *
+     * @return the number of days whose time changed.
+     */
+    public int merge(SyncState other) {
+        int changed = 0;
+        for (Map.Entry<String, Map<String, Counter>> task : other.counters.entrySet()) {
+            Map<String, Counter> byDevice = counters.computeIfAbsent(task.getKey(), u -> new HashMap<>(2));
+            for (Map.Entry<String, Counter> device : task.getValue().entrySet()) {
+                Counter from = device.getValue();
+                Counter counter = byDevice.get(device.getKey());
+                if (counter == null) {
+                    // A device not known yet for the task, its counter is copied as a whole
+                    byDevice.put(device.getKey(), new Counter(from.added().copy(), from.removed().copy()));
+                    changed += from.added().size() + from.removed().size();
+                } else {
+                    changed += mergeHistory(counter.added(), from.added());
+                    changed += mergeHistory(counter.removed(), from.removed());
+                }
+            }
+        }
+        other.fields.values().forEach(this::merge);
+        return changed;
+    }
+
+    /**
+     * @return the days the task has time for on any device, sorted.
+     */
+    public long[] days(String uid) {
+        Map<String, Counter> byDevice = counters.get(uid);
+        if (byDevice == null) {
+            return new long[0];
+        }
+        return byDevice.values().stream()
+                .flatMapToLong(counter -> Arrays.stream(days(counter)))
+                .sorted()
+                .distinct()
+                .toArray();
+    }
+
+    /**
+     * @return the tasks known by their fields.
+     */
+    public List<Fields> fields() {
+        return List.copyOf(fields.values());
+    }
+
+    public Fields fields(String uid) {
+        return fields.get(uid);
+    }
+
+    /**
+     * Merge the fields of a task, changed here or received from a device.
+     *
+     * @return {@code true} if they win over the known ones.
+     */
+    public boolean merge(Fields received) {
+        Fields current = fields.get(received.uid());
+        if (current != null && !received.isNewerThan(current)) {
+            return false;
+        }
+        fields.put(received.uid(), received);
+        return true;
+    }
+
+    public int taskCount() {
+        return Math.max(counters.size(), fields.size());
+    }
+
+    /**
+     * @return the days of the added and the removed time, sorted.
+     */
+    private static long[] days(Counter counter) {
+        DurationHistory added = counter.added();
+        DurationHistory removed = counter.removed();
+        long[] days = new long[added.size() + removed.size()];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < added.size() || j < removed.size()) {
+            long a = i < added.size() ? added.epochDayAt(i) : Long.MAX_VALUE;
+            long r = j < removed.size() ? removed.epochDayAt(j) : Long.MAX_VALUE;
+            days[count++] = Math.min(a, r);
+            if (a <= r) {
+                i++;
+            }
+            if (r <= a) {
+                j++;
+            }
+        }
+        return Arrays.copyOf(days, count);
+    }
+
+    private Counter counter(String uid, String device) {
+        return counters.computeIfAbsent(uid, u -> new HashMap<>(2))
+                .computeIfAbsent(device, d -> new Counter(new DurationHistory(), new DurationHistory()));
+    }
+
+    /**
+     * Keep the greatest value of the day.
+     *
+     * @return the increase of the value.
+     */
+    private static long max(DurationHistory history, long epochDay, long value) {
+        long current = history.getMillis(epochDay);
+        if (value <= current) {
+            return 0;
+        }
+        history.setMillis(epochDay, value);
+        return value - current;
+    }
+
+    /**
+     * Keep the greatest value of each day of both histories, in a single pass over the sorted days.
+     *
+     * @return the number of days increased.
+     */
+    private static int mergeHistory(DurationHistory into, DurationHistory from) {
+        int changed = 0;
+        int i = 0;
+        int size = into.size();
+        for (int j = 0; j < from.size(); j++) {
+            long day = from.epochDayAt(j);
+            while (i < size && into.epochDayAt(i) < day) {
+                i++;
+            }
+            if (i < size && into.epochDayAt(i) == day) {
+                if (from.millisAt(j) > into.millisAt(i)) {
+                    into.setMillis(day, from.millisAt(j));
+                    changed++;
+                }
+            } else {
+                into.setMillis(day, from.millisAt(j));
+                size++;
+                changed++;
+            }
+        }
+        return changed;
+    }
+
+    private record Counter(DurationHistory added, DurationHistory removed) {
+    }
+
+    /**
+     * The counters of a task on a device for some days, as exchanged between the devices.
+     */
+    public record Counters(String uid, String device, long[] epochDays, long[] added, long[] removed) {
+    }
+
+    /**
+     * The fields of a task, as changed by a device at a given time.
+     */
+    public record Fields(String uid, String parent, int order, String id, String shortDescription, Status status,
+                         List<String> tags, long timestamp, String device) {
+
+        boolean isNewerThan(Fields other) {
+            if (timestamp != other.timestamp) {
+                return timestamp > other.timestamp;
+            }
+            return device.compareTo(other.device) > 0;
+        }
+
+        /**
+         * @return {@code true} if the values are the same, whoever changed them and when.
+         */
+        public boolean sameValues(Fields other) {
+            return other != null && Objects.equals(parent, other.parent) && order == other.order
+                    && Objects.equals(id, other.id) && Objects.equals(shortDescription, other.shortDescription)
+                    && status == other.status && Objects.equals(tags, other.tags);
+        }
+    }
+
+}
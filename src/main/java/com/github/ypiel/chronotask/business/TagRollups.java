@@ -0,0 +1,153 @@
+package com.github.ypiel.chronotask.business;
+
+import com.github.ypiel.chronotask.model.DurationHistory;
+import com.github.ypiel.chronotask.model.Task;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Time spent by day on each tag.
+ * <p>
+ * The time of a task counts for its tags, except for the tags one of its parents already has: the time of a
+ * sub-task is already part of the time of its parents. The tags counted for each task are kept, so when the
+ * tags of a task are edited, only the whole history of the added and removed tags is moved, for the task and
+ * its sub-tasks.
+ */
+public class TagRollups {
+
+    private final Map<String, DurationHistory> byTag = new HashMap<>();
+
+    /**
+     * uid of a task => tags its time counts for.
+     */
+    private final Map<String, List<String>> countedTags = new HashMap<>();
+
+    /**
+     * uid of a task => tags of its parents.
+     */
+    private final Map<String, Set<String>> parentTags = new HashMap<>();
+
+    /**
+     * Compute the time of the tags from the given main tasks and their sub-tasks, replacing the previous one.
+     */
+    public synchronized void load(List<Task> tasks) {
+        byTag.clear();
+        countedTags.clear();
+        parentTags.clear();
+        for (Task task : tasks) {
+            retag(task, Set.of());
+        }
+    }
+
+    /**
+     * Update the time of the tags after the tags of a task may have changed.
+     *
+     * @param parent the parent of the task, {@code null} for a main task.
+     */
+    public synchronized void update(Task parent, Task task) {
+        Set<String> inherited = parentTags.get(task.getUid());
+        if (inherited == null) {
+            inherited = parent == null ? Set.of() : union(parentTags.getOrDefault(parent.getUid(), Set.of()), parent.getTags());
+        }
+        retag(task, inherited);
+    }
+
+    /**
+     * Add time to a day of a task.
+     */
+    public synchronized void add(Task task, long epochDay, long millis) {
+        List<String> tags = countedTags.get(task.getUid());
+        if (tags == null || millis == 0) {
+            return;
+        }
+        for (int i = 0; i < tags.size(); i++) {
+            byTag.get(tags.get(i)).addMillis(epochDay, millis);
+        }
+    }
+
+    /**
+     * @return a copy of the time of the tags, to read it without holding any lock while this one is updated. The
+     * copy can't be updated from the tasks.
+     */
+    public synchronized TagRollups copy() {
+        TagRollups copy = new TagRollups();
+        byTag.forEach((tag, history) -> copy.byTag.put(tag, history.copy()));
+        return copy;
+    }
+
+    public synchronized Set<String> getTags() {
+        return new TreeSet<>(byTag.keySet());
+    }
+
+    /**
+     * @return the time spent on a tag during the period containing the given date.
+     */
+    public Duration get(String tag, Period period, LocalDate date) {
+        return get(tag, period.from(date), period.to(date));
+    }
+
+    /**
+     * @return the time spent on a tag from {@code from} to {@code to} included.
+     */
+    public synchronized Duration get(String tag, LocalDate from, LocalDate to) {
+        DurationHistory history = byTag.get(tag);
+        return Duration.ofMillis(history == null ? 0 : history.sumMillis(from.toEpochDay(), to.toEpochDay()));
+    }
+
+    private void retag(Task task, Set<String> inherited) {
+        parentTags.put(task.getUid(), inherited);
+        List<String> counted = new ArrayList<>();
+        for (String tag : task.getTags()) {
+            if (!inherited.contains(tag) && !counted.contains(tag)) {
+                counted.add(tag);
+            }
+        }
+        List<String> previous = countedTags.getOrDefault(task.getUid(), List.of());
+        if (!counted.equals(previous)) {
+            DurationHistory history = task.getDurationsByDate();
+            for (String tag : previous) {
+                if (!counted.contains(tag)) {
+                    move(history, tag, -1);
+                }
+            }
+            for (String tag : counted) {
+                if (!previous.contains(tag)) {
+                    move(history, tag, 1);
+                }
+            }
+            countedTags.put(task.getUid(), counted);
+        }
+
+        Set<String> subTasksInherited = union(inherited, task.getTags());
+        for (Task subTask : task.getSubTasks()) {
+            if (!subTasksInherited.equals(parentTags.get(subTask.getUid())) || !countedTags.containsKey(subTask.getUid())) {
+                retag(subTask, subTasksInherited);
+            }
+        }
+    }
+
+    private void move(DurationHistory history, String tag, int sign) {
+        DurationHistory tagHistory = byTag.computeIfAbsent(tag, t -> new DurationHistory());
+        for (int i = 0; i < history.size(); i++) {
+            tagHistory.addMillis(history.epochDayAt(i), sign * history.millisAt(i));
+        }
+    }
+
+    private static Set<String> union(Set<String> tags, List<String> others) {
+        if (others.isEmpty()) {
+            return tags;
+        }
+        Set<String> union = new HashSet<>(tags);
+        union.addAll(others);
+        return Set.copyOf(union);
+    }
+
+}
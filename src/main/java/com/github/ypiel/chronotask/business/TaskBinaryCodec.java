@@ -0,0 +1,198 @@
+package com.github.ypiel.chronotask.business;
+
+import com.github.ypiel.chronotask.model.DurationHistory;
+import com.github.ypiel.chronotask.model.Status;
+import com.github.ypiel.chronotask.model.Task;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Compact binary format of a task tree, read through a memory-mapped file.
+ * <p>
+ * Layout, big-endian:
+ * <pre>
+ * int    magic 'CHTK'
+ * short  version
+ * int    length of the tree section
+ * tree   the task, then its sub-tasks recursively
+ * notes  the notes held in memory by the tasks, in UTF-8, referenced from the tree by offset and length
+ * </pre>
+ * Since version 2, a task also has the reference of its notes in the {@link NotesStore}, and a length of
+ * {@code -1} for its notes when they are not in memory.
+ * Strings are written as an int length, {@code -1} for {@code null}, followed by the UTF-8 bytes.
+ */
+@Slf4j
+public class TaskBinaryCodec {
+
+    private static final int MAGIC = 0x4348544B;
+    private static final short VERSION = 2;
+    private static final int HEADER_SIZE = 4 + 2 + 4;
+
+    private static final Status[] STATUSES = Status.values();
+
+    public void write(Task task, OutputStream out) throws IOException {
+        ByteArrayOutputStream treeBytes = new ByteArrayOutputStream(4096);
+        ByteArrayOutputStream notesBytes = new ByteArrayOutputStream(4096);
+        writeTask(task, new DataOutputStream(treeBytes), notesBytes);
+
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeShort(VERSION);
+        data.writeInt(treeBytes.size());
+        treeBytes.writeTo(data);
+        notesBytes.writeTo(data);
+        data.flush();
+    }
+
+    public Task read(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return read(buffer);
+        }
+    }
+
+    public Task read(ByteBuffer buffer) throws IOException {
+        if (buffer.getInt() != MAGIC) {
+            throw new IOException("Not a chrono-task binary file.");
+        }
+        short version = buffer.getShort();
+        if (version < 1 || version > VERSION) {
+            throw new IOException("Unsupported chrono-task binary version " + version + ".");
+        }
+        int notesBase = HEADER_SIZE + buffer.getInt();
+        return readTask(buffer, notesBase, version);
+    }
+
+    private void writeTask(Task task, DataOutputStream out, ByteArrayOutputStream notes) throws IOException {
+        writeString(out, task.getUid());
+        out.writeInt(task.getOrder());
+        writeString(out, task.getId());
+        writeString(out, task.getShortDescription());
+        out.writeByte(task.getStatus() == null ? -1 : task.getStatus().ordinal());
+
+        writeString(out, task.getNotesRef());
+        out.writeInt(notes.size());
+        if (task.getNotes() == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] notesBytes = task.getNotes().getBytes(StandardCharsets.UTF_8);
+            out.writeInt(notesBytes.length);
+            notes.write(notesBytes);
+        }
+
+        out.writeInt(task.getTags().size());
+        for (String tag : task.getTags()) {
+            writeString(out, tag);
+        }
+
+        writeString(out, task.getAutoTaskAction() == null ? null : task.getAutoTaskAction().getName());
+
+        DurationHistory durationsByDate = task.getDurationsByDate();
+        out.writeInt(durationsByDate.size());
+        for (int i = 0; i < durationsByDate.size(); i++) {
+            out.writeInt((int) durationsByDate.epochDayAt(i));
+            out.writeLong(durationsByDate.millisAt(i));
+            writeString(out, durationsByDate.notesAt(i));
+        }
+
+        out.writeInt(task.getSubTasks().size());
+        for (Task subTask : task.getSubTasks()) {
+            writeTask(subTask, out, notes);
+        }
+    }
+
+    private Task readTask(ByteBuffer buffer, int notesBase, short version) {
+        Task task = new Task();
+        task.setUid(readString(buffer));
+        task.setOrder(buffer.getInt());
+        task.setId(readString(buffer));
+        task.setShortDescription(readString(buffer));
+        byte status = buffer.get();
+        task.setStatus(status < 0 ? null : STATUSES[status]);
+
+        if (version >= 2) {
+            task.setNotesRef(readString(buffer));
+        }
+        int notesOffset = buffer.getInt();
+        int notesLength = buffer.getInt();
+        if (notesLength < 0) {
+            task.setNotes(null);
+        } else {
+            byte[] notes = new byte[notesLength];
+            buffer.get(notesBase + notesOffset, notes);
+            task.setNotes(new String(notes, StandardCharsets.UTF_8));
+        }
+
+        int nbTags = buffer.getInt();
+        List<String> tags = new ArrayList<>(nbTags);
+        for (int i = 0; i < nbTags; i++) {
+            tags.add(readString(buffer));
+        }
+        task.setTags(tags);
+
+        task.setAutoTaskAction(autoTaskAction(readString(buffer)));
+
+        int nbDurations = buffer.getInt();
+        DurationHistory durationsByDate = new DurationHistory(Math.max(nbDurations, 10));
+        for (int i = 0; i < nbDurations; i++) {
+            long epochDay = buffer.getInt();
+            durationsByDate.setMillis(epochDay, buffer.getLong());
+            durationsByDate.setNotes(epochDay, readString(buffer));
+        }
+        task.setDurationsByDate(durationsByDate);
+
+        int nbSubTasks = buffer.getInt();
+        List<Task> subTasks = new ArrayList<>(Math.max(nbSubTasks, 5));
+        for (int i = 0; i < nbSubTasks; i++) {
+            subTasks.add(readTask(buffer, notesBase, version));
+        }
+        task.setSubTasks(subTasks);
+        return task;
+    }
+
+    private static Class<? extends AutoTaskAction> autoTaskAction(String name) {
+        if (name == null) {
+            return null;
+        }
+        try {
+            return Class.forName(name, false, TaskBinaryCodec.class.getClassLoader()).asSubclass(AutoTaskAction.class);
+        } catch (ClassNotFoundException | ClassCastException e) {
+            log.warn("Unknown auto task action {}, use the default one.", name);
+            return IntervalAutoTaskAction.class;
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+}
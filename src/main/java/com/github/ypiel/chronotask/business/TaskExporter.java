@@ -0,0 +1,436 @@
+package com.github.ypiel.chronotask.business;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.github.ypiel.chronotask.model.DurationHistory;
+import com.github.ypiel.chronotask.model.Task;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Export the time spent on the tasks over a range of days.
+ * <p>
+ * The lines are written to the {@link Writer} as the tasks are visited, nothing is built in memory, so a
+ * whole year can be exported to a file. For each day, the tasks with less than the minimum duration are
+ * skipped with their sub-tasks. The days without any task left are skipped too, except when a single day is
+ * exported: it is always written, with its working day in the detailed text, as the export tab always did.
+ */
+public class TaskExporter {
+
+    public enum Format {
+        /**
+         * The layout of the export tab: the durations and the working day, or just the list of the tasks.
+         */
+        TEXT,
+        CSV,
+        JSON_LINES,
+        MARKDOWN
+    }
+
+    private final Format format;
+    private final Duration minimum;
+    private final boolean detailed;
+
+    /**
+     * @param detailed for the {@link Format#TEXT} format, write the durations and the working day.
+     */
+    public TaskExporter(Format format, Duration minimum, boolean detailed) {
+        this.format = format;
+        this.minimum = minimum;
+        this.detailed = detailed;
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    public void export(List<Task> tasks, LocalDate from, LocalDate to, OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        export(tasks, from, to, writer);
+        writer.flush();
+    }
+
+    public void export(List<Task> tasks, LocalDate from, LocalDate to, Writer out) throws IOException {
+        JfrEvents.ExportEvent event = new JfrEvents.ExportEvent();
+        event.begin();
+        int days = 0;
+        Sink sink = switch (format) {
+            case TEXT -> new TextSink(out, detailed, from.equals(to));
+            case CSV -> new CsvSink(out);
+            case JSON_LINES -> new JsonLinesSink(out);
+            case MARKDOWN -> new MarkdownSink(out);
+        };
+
+        sink.start();
+        for (LocalDate date = from; !date.isAfter(to); date = date.plusDays(1)) {
+            if (!from.equals(to) && !hasTasks(tasks, date)) {
+                continue;
+            }
+            sink.startDay(date);
+            days++;
+            long total = 0;
+            for (Task task : tasks) {
+                total += write(sink, date, task, null, 0);
+            }
+            sink.endDay(date, total);
+        }
+        sink.end();
+        out.flush();
+        if (event.shouldCommit()) {
+            event.format = format.name();
+            event.from = from.toString();
+            event.to = to.toString();
+            event.tasks = tasks.size();
+            event.days = days;
+            event.commit();
+        }
+    }
+
+    /**
+     * Export the time spent on each tag by day, the tags with less than the minimum duration on a day are skipped.
+     */
+    public void exportTags(TagRollups tagRollups, LocalDate from, LocalDate to, Writer out) throws IOException {
+        Set<String> tags = tagRollups.getTags();
+        JsonGenerator generator = null;
+        switch (format) {
+            case CSV -> out.write("date,tag,duration,seconds\n");
+            case MARKDOWN -> out.write("| Date | Tag | Duration |\n|------|-----|---------:|\n");
+            case JSON_LINES -> {
+                generator = new JsonFactory().createGenerator(out).disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+                generator.setRootValueSeparator(null);
+            }
+            case TEXT -> {
+            }
+        }
+
+        boolean firstDay = true;
+        for (LocalDate date = from; !date.isAfter(to); date = date.plusDays(1)) {
+            boolean dayStarted = false;
+            for (String tag : tags) {
+                long millis = tagRollups.get(tag, date, date).toMillis();
+                if (millis <= 0 || millis < minimum.toMillis()) {
+                    continue;
+                }
+                switch (format) {
+                    case TEXT -> {
+                        if (!dayStarted && !from.equals(to)) {
+                            out.write(firstDay ? "" : "\n");
+                            out.write(date + "\n\n");
+                        }
+                        out.write(formatDuration(millis) + " - " + tag + "\n");
+                    }
+                    case CSV -> out.write(date + "," + CsvSink.escape(tag) + "," + formatDuration(millis) + "," + millis / 1000 + "\n");
+                    case MARKDOWN -> out.write("| " + date + " | " + MarkdownSink.escape(tag) + " | " + formatDuration(millis) + " |\n");
+                    case JSON_LINES -> {
+                        generator.writeStartObject();
+                        generator.writeStringField("date", date.toString());
+                        generator.writeStringField("tag", tag);
+                        generator.writeNumberField("millis", millis);
+                        generator.writeEndObject();
+                        generator.flush();
+                        out.write('\n');
+                    }
+                }
+                dayStarted = true;
+                firstDay = false;
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * @return the duration of the task, or {@code 0} if it has been skipped.
+     */
+    private long write(Sink sink, LocalDate date, Task task, Task parent, int depth) throws IOException {
+        if (!isIncluded(task, date)) {
+            return 0;
+        }
+        long millis = task.getDurationsByDate().getMillis(date);
+        sink.task(date, task, parent, depth, millis);
+        for (Task subTask : task.getSubTasks()) {
+            write(sink, date, subTask, task, depth + 1);
+        }
+        return millis;
+    }
+
+    private boolean hasTasks(List<Task> tasks, LocalDate date) {
+        for (Task task : tasks) {
+            if (isIncluded(task, date)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isIncluded(Task task, LocalDate date) {
+        DurationHistory history = task.getDurationsByDate();
+        return history.contains(date) && history.getMillis(date) >= minimum.toMillis();
+    }
+
+    public static String formatDuration(Duration duration) {
+        long hours = duration.toHours();
+        long minutes = duration.toMinutes() % 60;
+        long seconds = duration.toSeconds() % 60;
+
+        StringBuilder sb = new StringBuilder();
+
+        sb.append(hours < 10 ? "0" : "").append(hours).append(":");
+        sb.append(minutes < 10 ? "0" : "").append(minutes).append(":");
+        sb.append(seconds < 10 ? "0" : "").append(seconds);
+
+        return sb.toString();
+    }
+
+    private static String formatDuration(long millis) {
+        return formatDuration(Duration.ofMillis(millis));
+    }
+
+    /**
+     * Keep the first lines written to it and count the others, to preview an export.
+     */
+    public static class Preview extends Writer {
+        private final int maxLines;
+        private final StringBuilder text = new StringBuilder();
+        private int lines = 0;
+
+        public Preview(int maxLines) {
+            this.maxLines = maxLines;
+        }
+
+        @Override
+        public void write(char[] buffer, int offset, int length) {
+            for (int i = offset; i < offset + length; i++) {
+                if (lines < maxLines) {
+                    text.append(buffer[i]);
+                }
+                if (buffer[i] == '\n') {
+                    lines++;
+                }
+            }
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+
+        public int getLines() {
+            return lines;
+        }
+
+        /**
+         * @return the first lines, followed by the number of lines left out if any.
+         */
+        @Override
+        public String toString() {
+            return lines <= maxLines ? text.toString() : text + "[" + (lines - maxLines) + " more lines]\n";
+        }
+    }
+
+    private interface Sink {
+        default void start() throws IOException {
+        }
+
+        void startDay(LocalDate date) throws IOException;
+
+        void task(LocalDate date, Task task, Task parent, int depth, long millis) throws IOException;
+
+        void endDay(LocalDate date, long totalMillis) throws IOException;
+
+        default void end() throws IOException {
+        }
+    }
+
+    private static class TextSink implements Sink {
+        private final Writer out;
+        private final boolean detailed;
+        private final boolean singleDay;
+        private boolean firstDay = true;
+
+        TextSink(Writer out, boolean detailed, boolean singleDay) {
+            this.out = out;
+            this.detailed = detailed;
+            this.singleDay = singleDay;
+        }
+
+        @Override
+        public void startDay(LocalDate date) throws IOException {
+            if (!firstDay) {
+                out.write("\n");
+            }
+            firstDay = false;
+            if (!singleDay) {
+                out.write(date.toString());
+                out.write("\n\n");
+            }
+        }
+
+        @Override
+        public void task(LocalDate date, Task task, Task parent, int depth, long millis) throws IOException {
+            if (detailed) {
+                out.write(depth > 0 ? "    " : "");
+                out.write(formatDuration(millis));
+                out.write(" - ");
+                out.write(task.getViewId());
+            } else {
+                out.write(depth > 0 ? "    - " : "- ");
+                out.write(task.getId());
+            }
+            out.write(": ");
+            out.write(task.getShortDescription());
+            out.write("\n");
+        }
+
+        @Override
+        public void endDay(LocalDate date, long totalMillis) throws IOException {
+            if (detailed) {
+                out.write("\nWorking day: ");
+                out.write(formatDuration(totalMillis));
+                out.write("\n");
+            }
+        }
+    }
+
+    private static class CsvSink implements Sink {
+        private final Writer out;
+
+        CsvSink(Writer out) {
+            this.out = out;
+        }
+
+        @Override
+        public void start() throws IOException {
+            out.write("date,id,parent,description,duration,seconds\n");
+        }
+
+        @Override
+        public void startDay(LocalDate date) {
+        }
+
+        @Override
+        public void task(LocalDate date, Task task, Task parent, int depth, long millis) throws IOException {
+            out.write(date.toString());
+            out.write(',');
+            out.write(escape(task.getId()));
+            out.write(',');
+            out.write(parent == null ? "" : escape(parent.getId()));
+            out.write(',');
+            out.write(escape(task.getShortDescription()));
+            out.write(',');
+            out.write(formatDuration(millis));
+            out.write(',');
+            out.write(Long.toString(millis / 1000));
+            out.write('\n');
+        }
+
+        @Override
+        public void endDay(LocalDate date, long totalMillis) {
+        }
+
+        private static String escape(String value) {
+            if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+                return value;
+            }
+            return '"' + value.replace("\"", "\"\"") + '"';
+        }
+    }
+
+    private static class JsonLinesSink implements Sink {
+        private final Writer out;
+        private final JsonGenerator generator;
+
+        JsonLinesSink(Writer out) throws IOException {
+            this.out = out;
+            this.generator = new JsonFactory().createGenerator(out).disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            // One object per line, without the space Jackson writes between root values
+            this.generator.setRootValueSeparator(null);
+        }
+
+        @Override
+        public void startDay(LocalDate date) {
+        }
+
+        @Override
+        public void task(LocalDate date, Task task, Task parent, int depth, long millis) throws IOException {
+            generator.writeStartObject();
+            generator.writeStringField("date", date.toString());
+            generator.writeStringField("uid", task.getUid());
+            generator.writeStringField("id", task.getId());
+            if (parent != null) {
+                generator.writeStringField("parent", parent.getId());
+            }
+            generator.writeStringField("description", task.getShortDescription());
+            if (task.getStatus() == null) {
+                generator.writeNullField("status");
+            } else {
+                generator.writeStringField("status", task.getStatus().name());
+            }
+            generator.writeNumberField("millis", millis);
+            generator.writeEndObject();
+            generator.flush();
+            out.write('\n');
+        }
+
+        @Override
+        public void endDay(LocalDate date, long totalMillis) {
+        }
+    }
+
+    private static class MarkdownSink implements Sink {
+        private final Writer out;
+
+        MarkdownSink(Writer out) {
+            this.out = out;
+        }
+
+        @Override
+        public void start() throws IOException {
+            out.write("| Date | Task | Description | Duration |\n");
+            out.write("|------|------|-------------|---------:|\n");
+        }
+
+        @Override
+        public void startDay(LocalDate date) {
+        }
+
+        @Override
+        public void task(LocalDate date, Task task, Task parent, int depth, long millis) throws IOException {
+            out.write("| ");
+            out.write(date.toString());
+            out.write(" | ");
+            out.write("&nbsp;&nbsp;".repeat(depth * 2));
+            out.write(escape(task.getViewId()));
+            out.write(" | ");
+            out.write(escape(task.getShortDescription()));
+            out.write(" | ");
+            out.write(formatDuration(millis));
+            out.write(" |\n");
+        }
+
+        @Override
+        public void endDay(LocalDate date, long totalMillis) throws IOException {
+            out.write("| ");
+            out.write(date.toString());
+            out.write(" | **Working day** | | **");
+            out.write(formatDuration(totalMillis));
+            out.write("** |\n");
+        }
+
+        private static String escape(String value) {
+            return value.replace("|", "\\|").replace("\n", " ");
+        }
+    }
+
+}
@@ -0,0 +1,277 @@
+package com.github.ypiel.chronotask.business;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.ypiel.chronotask.model.Status;
+import com.github.ypiel.chronotask.model.Task;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Append-only journal of the changes done on the tasks since the last snapshot.
+ * <p>
+ * Each record holds the new value of what changed (the duration of a day, the notes, the fields of a task),
+ * so replaying a record twice is harmless. Each time a snapshot is written, the journal is emptied of the
+ * records appended before the snapshot was taken.
+ */
+@Slf4j
+public class TaskJournal implements Closeable {
+
+    private final Path file;
+    private final ObjectMapper mapper;
+    private BufferedWriter writer;
+    private int size = 0;
+    /**
+     * Number of records appended since the journal was opened, failed ones included.
+     */
+    private long appended = 0;
+    /**
+     * Records appended since the last compaction, to keep the ones the next snapshot doesn't hold.
+     */
+    private final Deque<Record> records = new ArrayDeque<>();
+
+    public TaskJournal(Path file, ObjectMapper mapper) {
+        this.file = file;
+        this.mapper = mapper;
+    }
+
+    public synchronized void task(Task parent, Task task) {
+        Entry entry = new Entry();
+        entry.setType(Type.TASK);
+        entry.setUid(task.getUid());
+        entry.setParent(parent == null ? null : parent.getUid());
+        entry.setOrder(task.getOrder());
+        entry.setId(task.getId());
+        entry.setShortDescription(task.getShortDescription());
+        entry.setStatus(task.getStatus());
+        entry.setTags(new ArrayList<>(task.getTags()));
+        append(entry);
+    }
+
+    public synchronized void notes(Task task) {
+        Entry entry = new Entry();
+        entry.setType(Type.NOTES);
+        entry.setUid(task.getUid());
+        entry.setNotesRef(task.getNotesRef());
+        append(entry);
+    }
+
+    public synchronized void duration(Task task, long epochDay, long millis) {
+        Entry entry = new Entry();
+        entry.setType(Type.DURATION);
+        entry.setUid(task.getUid());
+        entry.setDay(epochDay);
+        entry.setMillis(millis);
+        append(entry);
+    }
+
+    public synchronized void dayNotes(Task task, Task.DurationByDate durationByDate) {
+        Entry entry = new Entry();
+        entry.setType(Type.DAY_NOTES);
+        entry.setUid(task.getUid());
+        entry.setDay(durationByDate.getDate().toEpochDay());
+        entry.setNotes(durationByDate.getNotes());
+        append(entry);
+    }
+
+    /**
+     * @return the number of records appended since the last compaction.
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Write a snapshot and empty the journal, when the snapshot holds all the changes appended so far.
+     */
+    public synchronized void compact(Snapshot snapshot) throws IOException {
+        compact(snapshot, Long.MAX_VALUE);
+    }
+
+    /**
+     * Write a snapshot and remove from the journal the records it holds, the {@code upTo} first ones appended
+     * since the journal was opened. The records appended after the snapshot was taken are kept, so a change is
+     * always either in the snapshot or in the journal.
+     */
+    public synchronized void compact(Snapshot snapshot, long upTo) throws IOException {
+        snapshot.write();
+        closeWriter();
+        while (!records.isEmpty() && records.peekFirst().sequence() <= upTo) {
+            records.removeFirst();
+        }
+        if (records.isEmpty()) {
+            Files.deleteIfExists(file);
+        } else {
+            ShardedTaskStore.writeAtomically(file, out -> {
+                for (Record record : records) {
+                    out.write((record.line() + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+                }
+            });
+        }
+        size = records.size();
+    }
+
+    /**
+     * Apply the records of the journal on the given tasks.
+     *
+     * @return the number of applied records.
+     */
+    public synchronized int replay(List<Task> tasks) throws IOException {
+        if (!Files.exists(file)) {
+            return 0;
+        }
+
+        Map<String, Task> byUid = new HashMap<>();
+        index(tasks, byUid);
+
+        int applied = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                Entry entry;
+                try {
+                    entry = mapper.readValue(line, Entry.class);
+                } catch (IOException e) {
+                    // The last record may be truncated if the application was killed while writing it
+                    log.warn("Skip unreadable journal record: {}", line, e);
+                    continue;
+                }
+                if (apply(entry, tasks, byUid)) {
+                    applied++;
+                }
+            }
+        }
+        size = applied;
+        log.info("{} records replayed from {}.", applied, file);
+        return applied;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        closeWriter();
+    }
+
+    private boolean apply(Entry entry, List<Task> tasks, Map<String, Task> byUid) {
+        Task task = byUid.get(entry.getUid());
+        if (entry.getType() == Type.TASK) {
+            if (task == null) {
+                task = new Task();
+                task.setUid(entry.getUid());
+                Task parent = entry.getParent() == null ? null : byUid.get(entry.getParent());
+                (parent == null ? tasks : parent.getSubTasks()).add(task);
+                byUid.put(task.getUid(), task);
+            }
+            task.setOrder(entry.getOrder());
+            task.setId(entry.getId());
+            task.setShortDescription(entry.getShortDescription());
+            task.setStatus(entry.getStatus());
+            task.setTags(new ArrayList<>(entry.getTags()));
+            return true;
+        }
+
+        if (task == null) {
+            log.warn("Skip journal record of unknown task {}.", entry.getUid());
+            return false;
+        }
+
+        switch (entry.getType()) {
+            case NOTES -> {
+                if (entry.getNotesRef() == null) {
+                    // Record written before the notes were moved to the NotesStore
+                    task.setNotes(entry.getNotes());
+                } else {
+                    task.setNotesRef(entry.getNotesRef());
+                    task.setNotes(null);
+                }
+            }
+            case DURATION -> task.getDurationsByDate().setMillis(entry.getDay(), entry.getMillis());
+            case DAY_NOTES -> task.getDurationsByDate().setNotes(entry.getDay(), entry.getNotes());
+            default -> {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void index(List<Task> tasks, Map<String, Task> byUid) {
+        for (Task task : tasks) {
+            byUid.put(task.getUid(), task);
+            index(task.getSubTasks(), byUid);
+        }
+    }
+
+    private void append(Entry entry) {
+        long sequence = ++appended;
+        try {
+            if (writer == null) {
+                Files.createDirectories(file.getParent());
+                writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            }
+            String line = mapper.writeValueAsString(entry);
+            writer.write(line);
+            writer.newLine();
+            writer.flush();
+            records.addLast(new Record(sequence, line));
+            size++;
+        } catch (IOException e) {
+            log.error("Can't append to journal {}.", file, e);
+        }
+    }
+
+    private void closeWriter() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+    }
+
+    public enum Type {
+        TASK, NOTES, DURATION, DAY_NOTES;
+    }
+
+    @Data
+    @NoArgsConstructor
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public static class Entry {
+        private Type type;
+        private String uid;
+        private String parent;
+        private Long day;
+        private Long millis;
+        private String notes;
+        private String notesRef;
+        private Integer order;
+        private String id;
+        private String shortDescription;
+        private Status status;
+        private List<String> tags;
+    }
+
+    private record Record(long sequence, String line) {
+    }
+
+    public interface Snapshot {
+        void write() throws IOException;
+    }
+
+}
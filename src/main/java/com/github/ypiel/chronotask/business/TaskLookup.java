@@ -0,0 +1,74 @@
+package com.github.ypiel.chronotask.business;
+
+import com.github.ypiel.chronotask.model.Task;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Find a task from outside the UI, by the command line or the HTTP API.
+ */
+public final class TaskLookup {
+
+    private TaskLookup() {
+    }
+
+    /**
+     * @return the valid task whose id is the given one, ignoring the case, or whose uid starts with it.
+     * @throws IllegalArgumentException if there is no such task or several.
+     */
+    public static Task find(List<Task> tasks, String query) {
+        List<Task> byId = new ArrayList<>();
+        List<Task> byUid = new ArrayList<>();
+        collect(tasks, query, byId, byUid);
+        List<Task> found = byId.isEmpty() ? byUid : byId;
+        if (found.isEmpty()) {
+            throw new IllegalArgumentException("No task '" + query + "'.");
+        }
+        if (found.size() > 1) {
+            StringBuilder message = new StringBuilder("Several tasks match '" + query + "':");
+            found.forEach(task -> message.append("\n  ").append(task.getUid()).append(" ").append(describe(task)));
+            throw new IllegalArgumentException(message.toString());
+        }
+        return found.get(0);
+    }
+
+    /**
+     * @return the main task of the given task, its sub-tasks down to it, and the task itself, or an empty list
+     * if it isn't one of the tasks.
+     */
+    public static List<Task> path(List<Task> tasks, Task task) {
+        List<Task> path = new ArrayList<>();
+        path(tasks, task, path);
+        return path;
+    }
+
+    public static String describe(Task task) {
+        return task.getViewId() + (task.getShortDescription().isEmpty() ? "" : " (" + task.getShortDescription() + ")");
+    }
+
+    private static boolean path(List<Task> tasks, Task task, List<Task> path) {
+        for (Task t : tasks) {
+            path.add(t);
+            if (t == task || path(t.getSubTasks(), task, path)) {
+                return true;
+            }
+            path.remove(path.size() - 1);
+        }
+        return false;
+    }
+
+    private static void collect(List<Task> tasks, String query, List<Task> byId, List<Task> byUid) {
+        for (Task task : tasks) {
+            if (task.isValid()) {
+                if (task.getId().equalsIgnoreCase(query) || task.getViewId().equalsIgnoreCase(query)) {
+                    byId.add(task);
+                } else if (task.getUid().startsWith(query)) {
+                    byUid.add(task);
+                }
+            }
+            collect(task.getSubTasks(), query, byId, byUid);
+        }
+    }
+
+}
@@ -0,0 +1,334 @@
+package com.github.ypiel.chronotask.business;
+
+import com.github.ypiel.chronotask.model.Task;
+
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executor;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * In-memory inverted index of the main tasks, to search them by the words of their id, short description and
+ * notes, and of those of their sub-tasks.
+ * <p>
+ * Each word of a main task has a weight depending on where it has been found. The words are also indexed
+ * by prefix, with a sorted map, and by trigram, so a word of the query matches the indexed words it starts
+ * or is part of. A main task matches when all the words of the query match, it is ranked by the sum of the
+ * weights, an exact word being worth more than a prefix and a prefix more than a part of a word.
+ * <p>
+ * The words of each task, and of its notes, are kept apart: when a task or its notes change, only its words
+ * are computed again, on the executor given at construction, then merged with the ones of the other tasks of
+ * its main task.
+ */
+@Slf4j
+public class TaskSearchIndex {
+
+    private static final int ID_WEIGHT = 8;
+    private static final int DESCRIPTION_WEIGHT = 4;
+    private static final int SUB_TASK_WEIGHT = 2;
+    private static final int NOTES_WEIGHT = 1;
+
+    private final NotesStore notesStore;
+    private final Executor executor;
+
+    /**
+     * word => uid of the main task => weight.
+     */
+    private final NavigableMap<String, Map<String, Integer>> postings = new TreeMap<>();
+    private final Map<String, Set<String>> wordsByTrigram = new HashMap<>();
+
+    /**
+     * uid of a main task => its words and their weights, to remove them when it is indexed again.
+     */
+    private final Map<String, Map<String, Integer>> wordsByTask = new HashMap<>();
+    /**
+     * uid of a task => the words of its id and short description, and those of its notes.
+     */
+    private final Map<String, Map<String, Integer>> fieldWords = new HashMap<>();
+    private final Map<String, Map<String, Integer>> notesWords = new HashMap<>();
+    /**
+     * uid of a main task => uid of its tasks, itself included.
+     */
+    private final Map<String, Set<String>> tasksOf = new HashMap<>();
+    private final Map<String, String> mainTaskOf = new HashMap<>();
+
+    /**
+     * @param executor runs the updates, in the order they are asked for.
+     */
+    public TaskSearchIndex(NotesStore notesStore, Executor executor) {
+        this.notesStore = notesStore;
+        this.executor = executor;
+    }
+
+    /**
+     * Index the given main tasks, with their notes if {@code withNotes}: the notes are read from the store,
+     * so the tasks can first be indexed without them and then again with them in the background.
+     */
+    public void index(List<Task> tasks, boolean withNotes) {
+        for (Task task : tasks) {
+            index(task, withNotes);
+        }
+    }
+
+    /**
+     * Index again the id and short description of the given task, after it changed. They are read on the
+     * calling thread, the index is updated on the executor.
+     *
+     * @param parent the parent of the task, {@code null} for a main task.
+     */
+    public void update(Task parent, Task task) {
+        String parentUid = parent == null ? null : parent.getUid();
+        String uid = task.getUid();
+        String id = task.getId();
+        String shortDescription = task.getShortDescription();
+        executor.execute(() -> {
+            Map<String, Integer> words = new HashMap<>();
+            addWords(words, id, parentUid == null ? ID_WEIGHT : SUB_TASK_WEIGHT);
+            addWords(words, shortDescription, parentUid == null ? DESCRIPTION_WEIGHT : SUB_TASK_WEIGHT);
+            update(parentUid, uid, fieldWords, words);
+        });
+    }
+
+    /**
+     * Index again the notes of the given task, after they changed, on the executor.
+     *
+     * @param parent the parent of the task, {@code null} for a main task.
+     * @param notes the new notes of the task.
+     */
+    public void updateNotes(Task parent, Task task, String notes) {
+        String parentUid = parent == null ? null : parent.getUid();
+        String uid = task.getUid();
+        executor.execute(() -> {
+            Map<String, Integer> words = new HashMap<>();
+            addWords(words, notes, NOTES_WEIGHT);
+            update(parentUid, uid, notesWords, words);
+        });
+    }
+
+    /**
+     * @return the uid of the matching main tasks and their score, or {@code null} if the query has no word.
+     */
+    public Map<String, Integer> search(String query) {
+        return search(query, null);
+    }
+
+    /**
+     * @param among the uid of the main tasks to score, e.g. the ones matching a query this one {@link #narrows},
+     *              {@code null} for all of them.
+     * @return the uid of the matching main tasks and their score, or {@code null} if the query has no word.
+     */
+    public synchronized Map<String, Integer> search(String query, Set<String> among) {
+        List<String> queryWords = tokenize(query);
+        if (queryWords.isEmpty()) {
+            return null;
+        }
+
+        Map<String, Integer> result = null;
+        for (String queryWord : queryWords) {
+            Map<String, Integer> scores = new HashMap<>();
+            for (String word : matchingWords(queryWord)) {
+                int factor = word.equals(queryWord) ? 3 : word.startsWith(queryWord) ? 2 : 1;
+                Map<String, Integer> posting = postings.get(word);
+                if (among == null) {
+                    posting.forEach((uid, weight) -> scores.merge(uid, weight * factor, Math::max));
+                } else if (among.size() < posting.size()) {
+                    for (String uid : among) {
+                        Integer weight = posting.get(uid);
+                        if (weight != null) {
+                            scores.merge(uid, weight * factor, Math::max);
+                        }
+                    }
+                } else {
+                    posting.forEach((uid, weight) -> {
+                        if (among.contains(uid)) {
+                            scores.merge(uid, weight * factor, Math::max);
+                        }
+                    });
+                }
+            }
+            if (result == null) {
+                result = scores;
+            } else {
+                result.keySet().retainAll(scores.keySet());
+                result.replaceAll((uid, score) -> score + scores.get(uid));
+            }
+            if (result.isEmpty()) {
+                break;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return {@code true} if the tasks matching {@code query} are among the ones matching {@code previous}, so
+     * the previous results only need to be filtered.
+     */
+    public static boolean narrows(String previous, String query) {
+        List<String> previousWords = tokenize(previous);
+        List<String> queryWords = tokenize(query);
+        if (previousWords.isEmpty() || queryWords.size() < previousWords.size()) {
+            return false;
+        }
+        for (int i = 0; i < previousWords.size(); i++) {
+            String previousWord = previousWords.get(i);
+            String queryWord = queryWords.get(i);
+            // A word of less than three letters only matches prefixes, a longer one can match anywhere
+            if (!queryWord.startsWith(previousWord) || (previousWord.length() < 3 && queryWord.length() >= 3)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void index(Task mainTask, boolean withNotes) {
+        Map<String, Map<String, Integer>> fields = new HashMap<>();
+        Map<String, Map<String, Integer>> notes = new HashMap<>();
+        collect(mainTask, true, withNotes, fields, notes);
+
+        synchronized (this) {
+            String mainUid = mainTask.getUid();
+            fieldWords.putAll(fields);
+            notesWords.putAll(notes);
+            Set<String> tasks = tasksOf.computeIfAbsent(mainUid, uid -> new LinkedHashSet<>());
+            for (String uid : fields.keySet()) {
+                tasks.add(uid);
+                mainTaskOf.put(uid, mainUid);
+            }
+            merge(mainUid);
+        }
+    }
+
+    private synchronized void update(String parentUid, String uid, Map<String, Map<String, Integer>> wordsOf, Map<String, Integer> words) {
+        String mainUid = parentUid == null ? uid : mainTaskOf.getOrDefault(parentUid, parentUid);
+        wordsOf.put(uid, words);
+        mainTaskOf.put(uid, mainUid);
+        tasksOf.computeIfAbsent(mainUid, u -> new LinkedHashSet<>()).add(uid);
+        merge(mainUid);
+    }
+
+    /**
+     * Replace the words of the main task by the ones of its tasks.
+     */
+    private void merge(String mainUid) {
+        Map<String, Integer> words = new HashMap<>();
+        for (String uid : tasksOf.getOrDefault(mainUid, Set.of())) {
+            fieldWords.getOrDefault(uid, Map.of()).forEach((word, weight) -> words.merge(word, weight, Math::max));
+            notesWords.getOrDefault(uid, Map.of()).forEach((word, weight) -> words.merge(word, weight, Math::max));
+        }
+        Map<String, Integer> previous = wordsByTask.getOrDefault(mainUid, Map.of());
+        previous.keySet().forEach(word -> remove(word, mainUid));
+        words.forEach((word, weight) -> add(word, mainUid, weight));
+        wordsByTask.put(mainUid, words);
+    }
+
+    private void collect(Task task, boolean main, boolean withNotes, Map<String, Map<String, Integer>> fields,
+                         Map<String, Map<String, Integer>> notes) {
+        Map<String, Integer> words = new HashMap<>();
+        addWords(words, task.getId(), main ? ID_WEIGHT : SUB_TASK_WEIGHT);
+        addWords(words, task.getShortDescription(), main ? DESCRIPTION_WEIGHT : SUB_TASK_WEIGHT);
+        fields.put(task.getUid(), words);
+        if (withNotes) {
+            try {
+                Map<String, Integer> notesOfTask = new HashMap<>();
+                addWords(notesOfTask, notesStore.read(task), NOTES_WEIGHT);
+                notes.put(task.getUid(), notesOfTask);
+            } catch (UncheckedIOException e) {
+                log.warn("Can't index the notes of task {}.", task.getId(), e);
+            }
+        }
+        for (Task subTask : task.getSubTasks()) {
+            collect(subTask, false, withNotes, fields, notes);
+        }
+    }
+
+    private static void addWords(Map<String, Integer> words, String text, int weight) {
+        if (text == null) {
+            return;
+        }
+        for (String word : tokenize(text)) {
+            words.merge(word, weight, Math::max);
+        }
+    }
+
+    private Set<String> matchingWords(String queryWord) {
+        Set<String> words = new HashSet<>(postings.subMap(queryWord, true, queryWord + Character.MAX_VALUE, false).keySet());
+        if (queryWord.length() >= 3) {
+            Set<String> candidates = null;
+            for (String trigram : trigrams(queryWord)) {
+                Set<String> withTrigram = wordsByTrigram.getOrDefault(trigram, Set.of());
+                if (candidates == null) {
+                    candidates = new HashSet<>(withTrigram);
+                } else {
+                    candidates.retainAll(withTrigram);
+                }
+            }
+            for (String candidate : candidates) {
+                if (candidate.contains(queryWord)) {
+                    words.add(candidate);
+                }
+            }
+        }
+        return words;
+    }
+
+    private void add(String word, String uid, int weight) {
+        Map<String, Integer> tasks = postings.computeIfAbsent(word, w -> {
+            trigrams(w).forEach(trigram -> wordsByTrigram.computeIfAbsent(trigram, t -> new HashSet<>()).add(w));
+            return new HashMap<>();
+        });
+        tasks.put(uid, weight);
+    }
+
+    private void remove(String word, String uid) {
+        Map<String, Integer> tasks = postings.get(word);
+        if (tasks == null) {
+            return;
+        }
+        tasks.remove(uid);
+        if (tasks.isEmpty()) {
+            postings.remove(word);
+            for (String trigram : trigrams(word)) {
+                // Already removed if the word has the trigram more than once
+                Set<String> words = wordsByTrigram.get(trigram);
+                if (words != null && words.remove(word) && words.isEmpty()) {
+                    wordsByTrigram.remove(trigram);
+                }
+            }
+        }
+    }
+
+    static List<String> tokenize(String text) {
+        List<String> words = new ArrayList<>();
+        String lowerCase = text.toLowerCase(Locale.ROOT);
+        int start = -1;
+        for (int i = 0; i <= lowerCase.length(); i++) {
+            boolean letterOrDigit = i < lowerCase.length() && Character.isLetterOrDigit(lowerCase.charAt(i));
+            if (letterOrDigit && start < 0) {
+                start = i;
+            } else if (!letterOrDigit && start >= 0) {
+                words.add(lowerCase.substring(start, i));
+                start = -1;
+            }
+        }
+        return words;
+    }
+
+    private static List<String> trigrams(String word) {
+        List<String> trigrams = new ArrayList<>();
+        for (int i = 0; i + 3 <= word.length(); i++) {
+            trigrams.add(word.substring(i, i + 3));
+        }
+        return trigrams;
+    }
+
+}
@@ -0,0 +1,238 @@
+package com.github.ypiel.chronotask.business;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * One timer for all the periodic work of the application.
+ * <p>
+ * Time is divided in ticks of one second, the periods of the subscribers are rounded to whole ticks and a
+ * subscriber runs on the ticks that are multiples of its period. So the subscribers due at the same time run
+ * on the same wake-up, the ones running on the same executor (e.g. the FX thread) in a single batch, and the
+ * timer thread only wakes up on the ticks where at least one subscriber is due. A suspended subscriber, e.g.
+ * the refresh of a hidden view, doesn't wake the timer up at all.
+ * <p>
+ * Each subscriber counts its runs and their duration, they are logged when the scheduler is stopped.
+ */
+@Slf4j
+public class TickScheduler {
+
+    private static final long TICK_MILLIS = 1000;
+
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "chrono-task-ticks");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Runs the subscribers without executor
+    private final Executor direct = Runnable::run;
+
+    private final List<Subscription> subscriptions = new ArrayList<>();
+    private ScheduledFuture<?> wakeUp;
+    private long wakeUpTick = Long.MAX_VALUE;
+    private long wakeUps = 0;
+
+    /**
+     * Run {@code action} every {@code period} on the timer thread, it must be short.
+     *
+     * @param name the name of the work, also of its timer {@code ticks.<name>}: the same for the same work, e.g.
+     *             not the id of a task, the timers are never removed.
+     */
+    public Subscription subscribe(String name, Duration period, Runnable action) {
+        return subscribe(name, period, null, action);
+    }
+
+    /**
+     * Run {@code action} every {@code period} on the given executor, e.g. {@code Platform::runLater}.
+     */
+    public synchronized Subscription subscribe(String name, Duration period, Executor executor, Runnable action) {
+        Subscription subscription = new Subscription(name, Math.max(1, period.toMillis() / TICK_MILLIS),
+                executor == null ? direct : executor, action);
+        subscriptions.add(subscription);
+        subscription.nextTick = subscription.nextTickAfter(currentTick());
+        reschedule();
+        return subscription;
+    }
+
+    public synchronized List<Subscription> getSubscriptions() {
+        return List.copyOf(subscriptions);
+    }
+
+    public synchronized long getWakeUps() {
+        return wakeUps;
+    }
+
+    public void stop() {
+        timer.shutdownNow();
+        synchronized (this) {
+            log.info("{} wake-ups", wakeUps);
+            subscriptions.forEach(s -> log.info("{}", s));
+        }
+    }
+
+    private void wakeUp() {
+        Map<Executor, List<Subscription>> due = new LinkedHashMap<>();
+        synchronized (this) {
+            wakeUps++;
+            long tick = currentTick();
+            for (Subscription subscription : subscriptions) {
+                if (!subscription.suspended && subscription.nextTick <= tick) {
+                    due.computeIfAbsent(subscription.executor, e -> new ArrayList<>()).add(subscription);
+                    subscription.nextTick = subscription.nextTickAfter(tick);
+                }
+            }
+            wakeUpTick = Long.MAX_VALUE;
+            reschedule();
+        }
+        due.forEach((executor, batch) -> {
+            try {
+                executor.execute(() -> batch.forEach(Subscription::run));
+            } catch (RuntimeException e) {
+                log.warn("Can't run {}.", batch, e);
+            }
+        });
+    }
+
+    /**
+     * Schedule the wake-up on the next tick a subscriber is due, if it is earlier than the scheduled one.
+     */
+    private void reschedule() {
+        long next = Long.MAX_VALUE;
+        for (Subscription subscription : subscriptions) {
+            if (!subscription.suspended) {
+                next = Math.min(next, subscription.nextTick);
+            }
+        }
+        if (next == Long.MAX_VALUE || next >= wakeUpTick || timer.isShutdown()) {
+            return;
+        }
+        if (wakeUp != null) {
+            wakeUp.cancel(false);
+        }
+        wakeUpTick = next;
+        long delay = Math.max(0, next * TICK_MILLIS - System.currentTimeMillis());
+        wakeUp = timer.schedule(this::wakeUp, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private static long currentTick() {
+        return System.currentTimeMillis() / TICK_MILLIS;
+    }
+
+    public class Subscription {
+
+        private final String name;
+        private final long periodTicks;
+        private final Executor executor;
+        private final Runnable action;
+
+        private long nextTick;
+        private boolean suspended = false;
+        private boolean cancelled = false;
+
+        private final Metrics.Timer timer;
+
+        private long runs = 0;
+        private long totalNanos = 0;
+        private long maxNanos = 0;
+
+        private Subscription(String name, long periodTicks, Executor executor, Runnable action) {
+            this.name = name;
+            this.periodTicks = periodTicks;
+            this.executor = executor;
+            this.action = action;
+            this.timer = Metrics.timer("ticks." + name);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Stop running until {@link #resume()}, without waking the timer up.
+         */
+        public void suspend() {
+            synchronized (TickScheduler.this) {
+                suspended = true;
+            }
+        }
+
+        /**
+         * Run again, from the next tick so a view shown again is refreshed right away.
+         */
+        public void resume() {
+            synchronized (TickScheduler.this) {
+                if (!suspended || cancelled) {
+                    return;
+                }
+                suspended = false;
+                nextTick = currentTick() + 1;
+                reschedule();
+            }
+        }
+
+        public void setSuspended(boolean suspended) {
+            if (suspended) {
+                suspend();
+            } else {
+                resume();
+            }
+        }
+
+        public void cancel() {
+            synchronized (TickScheduler.this) {
+                cancelled = true;
+                suspended = true;
+                subscriptions.remove(this);
+            }
+        }
+
+        public synchronized long getRuns() {
+            return runs;
+        }
+
+        public synchronized Duration getTotalTime() {
+            return Duration.ofNanos(totalNanos);
+        }
+
+        public synchronized Duration getMaxTime() {
+            return Duration.ofNanos(maxNanos);
+        }
+
+        private long nextTickAfter(long tick) {
+            return (tick / periodTicks + 1) * periodTicks;
+        }
+
+        private void run() {
+            long start = System.nanoTime();
+            try {
+                action.run();
+            } catch (RuntimeException e) {
+                log.error("{} failed.", name, e);
+            }
+            long nanos = System.nanoTime() - start;
+            timer.record(nanos);
+            synchronized (this) {
+                runs++;
+                totalNanos += nanos;
+                maxNanos = Math.max(maxNanos, nanos);
+            }
+        }
+
+        @Override
+        public synchronized String toString() {
+            return String.format("%s every %ds: %d runs, %.3fms total, %.3fms max", name, periodTicks, runs,
+                    totalNanos / 1e6, maxNanos / 1e6);
+        }
+    }
+
+}
@@ -0,0 +1,187 @@
+package com.github.ypiel.chronotask.business;
+
+import com.github.ypiel.chronotask.model.DurationHistory;
+import com.github.ypiel.chronotask.model.Task;
+
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Time spent by day, week, month and year, for each task and for all the main tasks.
+ * <p>
+ * Each {@link Period} is stored in a {@link DurationHistory} whose entries are the first days of the periods.
+ * The rollups are computed once from the loaded tasks, in parallel, then the {@link DurationManager} adds to
+ * them the time it adds to the tasks, so reading the time of a period is a lookup whatever the size of the
+ * history. The global totals only count the main tasks: the time of the sub-tasks is already part of the time
+ * of their main task. The time by tag is kept by {@link TagRollups}.
+ */
+public class TimeRollups {
+
+    private static final Period[] PERIODS = Period.values();
+    private static final List<Period> ROLLED_UP = List.of(Period.WEEK, Period.MONTH, Period.YEAR);
+
+    private final Set<String> mainTasks = ConcurrentHashMap.newKeySet();
+    private final Map<String, Rollup> byTask = new ConcurrentHashMap<>();
+    private final Map<Period, DurationHistory> global = new EnumMap<>(Period.class);
+    private final TagRollups tags = new TagRollups();
+
+    // First days of the periods of the last updated day, the ticks always update the same day
+    private long cachedEpochDay = Long.MIN_VALUE;
+    private final long[] cachedStarts = new long[PERIODS.length];
+
+    public TimeRollups() {
+        for (Period period : Period.values()) {
+            global.put(period, new DurationHistory());
+        }
+    }
+
+    /**
+     * Compute the rollups of the given main tasks and their sub-tasks, replacing the previous ones.
+     */
+    public synchronized void load(List<Task> tasks) {
+        mainTasks.clear();
+        byTask.clear();
+        global.values().forEach(DurationHistory::clear);
+
+        List<Task> all = new ArrayList<>();
+        flatten(tasks, all);
+        // The rollups of the tasks are independent, they are computed on the fork-join pool
+        all.parallelStream().forEach(task -> byTask.put(task.getUid(), Rollup.of(task)));
+        tasks.forEach(this::addMainTask);
+        tags.load(tasks);
+    }
+
+    /**
+     * Count the time of a main task in the global totals, including the time it already has if it wasn't
+     * counted yet.
+     */
+    public synchronized void addMainTask(Task task) {
+        if (!mainTasks.add(task.getUid())) {
+            return;
+        }
+        Rollup rollup = byTask.computeIfAbsent(task.getUid(), uid -> Rollup.of(task));
+        merge(task.getDurationsByDate(), global.get(Period.DAY));
+        for (Period period : ROLLED_UP) {
+            merge(rollup.get(period), global.get(period));
+        }
+    }
+
+    public boolean isMainTask(Task task) {
+        return mainTasks.contains(task.getUid());
+    }
+
+    /**
+     * Update the time of the tags after the tags of a task may have changed.
+     *
+     * @param parent the parent of the task, {@code null} for a main task.
+     */
+    public synchronized void updateTags(Task parent, Task task) {
+        tags.update(parent, task);
+    }
+
+    public TagRollups getTags() {
+        return tags;
+    }
+
+    /**
+     * Add time to a day of a task. The day itself must already be updated in the history of the task, while
+     * holding the lock of the rollups so they are not computed from the history in the meantime.
+     */
+    public synchronized void add(Task task, long epochDay, long millis) {
+        if (millis == 0) {
+            return;
+        }
+        long[] starts = starts(epochDay);
+        Rollup rollup = byTask.get(task.getUid());
+        if (rollup == null) {
+            byTask.put(task.getUid(), Rollup.of(task));
+        } else {
+            for (int i = 0; i < ROLLED_UP.size(); i++) {
+                Period period = ROLLED_UP.get(i);
+                rollup.get(period).addMillis(starts[period.ordinal()], millis);
+            }
+        }
+        if (mainTasks.contains(task.getUid())) {
+            for (Period period : PERIODS) {
+                global.get(period).addMillis(starts[period.ordinal()], millis);
+            }
+        }
+        tags.add(task, epochDay, millis);
+    }
+
+    /**
+     * @return the time spent on all the main tasks during the period containing the given date.
+     */
+    public synchronized Duration get(Period period, LocalDate date) {
+        return Duration.ofMillis(global.get(period).getMillis(period.from(date)));
+    }
+
+    /**
+     * @return the time spent on a task during the period containing the given date.
+     */
+    public synchronized Duration get(Task task, Period period, LocalDate date) {
+        if (period == Period.DAY) {
+            return Duration.ofMillis(task.getDurationsByDate().getMillis(date));
+        }
+        Rollup rollup = byTask.get(task.getUid());
+        return Duration.ofMillis(rollup == null ? 0 : rollup.get(period).getMillis(period.from(date)));
+    }
+
+    private long[] starts(long epochDay) {
+        if (epochDay != cachedEpochDay) {
+            LocalDate date = LocalDate.ofEpochDay(epochDay);
+            for (Period period : PERIODS) {
+                cachedStarts[period.ordinal()] = period.from(date).toEpochDay();
+            }
+            cachedEpochDay = epochDay;
+        }
+        return cachedStarts;
+    }
+
+    private static void merge(DurationHistory from, DurationHistory to) {
+        for (int i = 0; i < from.size(); i++) {
+            to.addMillis(from.epochDayAt(i), from.millisAt(i));
+        }
+    }
+
+    private static void flatten(List<Task> tasks, List<Task> all) {
+        for (Task task : tasks) {
+            all.add(task);
+            flatten(task.getSubTasks(), all);
+        }
+    }
+
+    /**
+     * Weeks, months and years of a task, its days are its own history.
+     */
+    private record Rollup(DurationHistory weeks, DurationHistory months, DurationHistory years) {
+
+        static Rollup of(Task task) {
+            Rollup rollup = new Rollup(new DurationHistory(), new DurationHistory(), new DurationHistory());
+            DurationHistory days = task.getDurationsByDate();
+            for (int i = 0; i < days.size(); i++) {
+                LocalDate date = LocalDate.ofEpochDay(days.epochDayAt(i));
+                for (Period period : ROLLED_UP) {
+                    rollup.get(period).addMillis(period.from(date).toEpochDay(), days.millisAt(i));
+                }
+            }
+            return rollup;
+        }
+
+        DurationHistory get(Period period) {
+            return switch (period) {
+                case WEEK -> weeks;
+                case MONTH -> months;
+                case YEAR -> years;
+                case DAY -> throw new IllegalArgumentException("The days of a task are its history.");
+            };
+        }
+    }
+
+}
@@ -3,7 +3,10 @@ package com.github.ypiel.chronotask.control;
 import java.time.Duration;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
-import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.LongUnaryOperator;
+
+import com.github.ypiel.chronotask.model.DurationHistory;
 
 import javafx.beans.property.SimpleStringProperty;
 import javafx.collections.FXCollections;
@@ -13,9 +16,25 @@ import javafx.scene.control.cell.PropertyValueFactory;
 import javafx.scene.control.cell.TextFieldTableCell;
 import static com.github.ypiel.chronotask.model.Task.DurationByDate;
 
+/**
+ * Durations by date of a task. The history is modified by other threads while it is shown: it is only read
+ * and modified holding the lock given at construction.
+ */
 public class DurationByDateTableView extends TableView<DurationByDate> {
-    public DurationByDateTableView() {
+
+    private final Object historyLock;
+    private DurationHistory durationHistory = new DurationHistory();
+    private LongUnaryOperator liveMillis = durationHistory::getMillis;
+
+    private Consumer<DurationByDate> onNotesChanged = durationByDate -> {
+    };
+
+    /**
+     * @param historyLock the lock held to modify the histories, the {@link com.github.ypiel.chronotask.business.TimeRollups}.
+     */
+    public DurationByDateTableView(Object historyLock) {
         super();
+        this.historyLock = historyLock;
 
         TableColumn<DurationByDate, String> dateTableColumn = new TableColumn<>("Date");
         dateTableColumn.setCellValueFactory(cellData -> {
@@ -36,16 +55,63 @@ public class DurationByDateTableView extends TableView<DurationByDate> {
         notesColumn.setCellValueFactory(new PropertyValueFactory<>("notes"));
         notesColumn.setCellFactory(TextFieldTableCell.forTableColumn());
         notesColumn.setOnEditCommit(event -> {
-            DurationByDate DurationByDate = event.getRowValue();
-            DurationByDate.setNotes(event.getNewValue());
+            DurationByDate durationByDate = event.getRowValue();
+            durationByDate.setNotes(event.getNewValue());
+            synchronized (historyLock) {
+                durationHistory.setNotes(durationByDate.getDate().toEpochDay(), event.getNewValue());
+            }
+            onNotesChanged.accept(durationByDate);
         });
 
         this.getColumns().addAll(dateTableColumn, durationTableColumn, notesColumn);
         this.setEditable(true);
     }
 
-    public void setDurationsByDate(List<DurationByDate> durationByDateList) {
-        durationByDateList.sort((o1, o2) -> o2.getDate().compareTo(o1.getDate()));
-        this.setItems(FXCollections.observableArrayList(durationByDateList));
+    public void setOnNotesChanged(Consumer<DurationByDate> onNotesChanged) {
+        this.onNotesChanged = onNotesChanged;
+    }
+
+    public void setDurationsByDate(DurationHistory durationHistory) {
+        setDurationsByDate(durationHistory, epochDay -> {
+            synchronized (historyLock) {
+                return durationHistory.getMillis(epochDay);
+            }
+        });
+    }
+
+    /**
+     * @param liveMillis the time spent during a day, given as an epoch day, when the history doesn't have it yet.
+     */
+    public void setDurationsByDate(DurationHistory durationHistory, LongUnaryOperator liveMillis) {
+        this.durationHistory = durationHistory;
+        this.liveMillis = liveMillis;
+        this.setItems(FXCollections.observableArrayList(copyHistory()));
+    }
+
+    /**
+     * Refresh the displayed durations, and the rows if an entry has been added to the history since it was set.
+     * The rows are copies of the history entries, only those whose duration changed are replaced.
+     */
+    public void refreshDurations() {
+        DurationHistory history = copyHistory();
+        int size = history.size();
+        if (size != this.getItems().size()) {
+            this.setItems(FXCollections.observableArrayList(history));
+            return;
+        }
+        for (int i = 0; i < size; i++) {
+            // The rows are sorted from the most recent date, the history from the oldest one
+            long millis = liveMillis.applyAsLong(history.epochDayAt(size - 1 - i));
+            DurationByDate row = this.getItems().get(i);
+            if (row.getDuration().toMillis() != millis) {
+                this.getItems().set(i, new DurationByDate(row.getDate(), Duration.ofMillis(millis), row.getNotes()));
+            }
+        }
+    }
+
+    private DurationHistory copyHistory() {
+        synchronized (historyLock) {
+            return durationHistory.copy();
+        }
     }
 }
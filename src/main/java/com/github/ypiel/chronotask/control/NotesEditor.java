@@ -1,10 +1,10 @@
 package com.github.ypiel.chronotask.control;
 
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import com.github.ypiel.chronotask.business.MarkdownRenderService;
+import com.github.ypiel.chronotask.business.NotesStore;
 import com.github.ypiel.chronotask.model.Task;
 
-import org.commonmark.node.Node;
-import org.commonmark.parser.Parser;
-import org.commonmark.renderer.html.HtmlRenderer;
 import org.fxmisc.flowless.VirtualizedScrollPane;
 import org.fxmisc.richtext.CodeArea;
 import org.fxmisc.richtext.LineNumberFactory;
@@ -15,12 +15,11 @@ import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.List;
 import java.util.Objects;
+import java.util.function.BiConsumer;
 
-import javafx.animation.KeyFrame;
-import javafx.animation.Timeline;
-import javafx.beans.value.ChangeListener;
-import javafx.beans.value.ObservableValue;
+import javafx.application.Platform;
 import javafx.concurrent.Worker;
 import javafx.geometry.Orientation;
 import javafx.scene.control.Label;
@@ -30,13 +29,14 @@ import javafx.scene.layout.Priority;
 import javafx.scene.layout.VBox;
 import javafx.scene.web.WebEngine;
 import javafx.scene.web.WebView;
-import javafx.util.Duration;
 import lombok.extern.log4j.Log4j2;
 
 @Log4j2
 public class NotesEditor extends VBox {
 
-    private double scrollpos = 0.0;
+    // The notes are rendered when no key has been typed during this delay, and saved after a longer one
+    private static final java.time.Duration RENDER_DELAY = java.time.Duration.ofMillis(300);
+    private static final java.time.Duration SAVE_DELAY = java.time.Duration.ofSeconds(3);
 
     private static final String WEBVIEW_CSS;
     static {
@@ -51,29 +51,40 @@ public class NotesEditor extends VBox {
         }
     }
 
+    private final NotesStore notesStore;
+    private final MarkdownRenderService renderService;
     private Task task;
     private final Label lblNotesInfo;
     private final CodeArea codeArea;
     private final WebEngine webEngine;
+    private BiConsumer<Task, String> onNotesChanged = (task, notes) -> {
+    };
 
-    public NotesEditor() {
+    private boolean pageLoaded = false;
+    private String pendingHtml;
+    private String renderedNotes;
+
+    public NotesEditor(NotesStore notesStore, MarkdownRenderService renderService) {
         super();
+        this.notesStore = notesStore;
+        this.renderService = renderService;
         lblNotesInfo = new Label("Notes of ...");
         codeArea = new CodeArea();
         codeArea.setParagraphGraphicFactory(LineNumberFactory.get(codeArea));
         WebView webView = new WebView();
         webEngine = webView.getEngine();
 
-        webEngine.getLoadWorker().stateProperty().addListener(new ChangeListener<Worker.State>() {
-            @Override
-            public void changed(ObservableValue<? extends Worker.State> observable, Worker.State oldValue, Worker.State newValue) {
-                if (newValue == Worker.State.SUCCEEDED) {
-                    // Restore the scroll position
-                    System.out.println("************** Set scroll position: " + scrollpos);
-                    webEngine.executeScript("window.scrollTo(0, " + scrollpos + ");");
+        // The page is loaded once, then only its body is replaced so it keeps its scroll position
+        webEngine.getLoadWorker().stateProperty().addListener((observable, oldValue, newValue) -> {
+            if (newValue == Worker.State.SUCCEEDED) {
+                pageLoaded = true;
+                if (pendingHtml != null) {
+                    showHtml(pendingHtml);
+                    pendingHtml = null;
                 }
             }
         });
+        webEngine.loadContent("<html><head>" + WEBVIEW_CSS + "</head><body></body></html>");
 
         VirtualizedScrollPane<CodeArea> scrollPane = new VirtualizedScrollPane<>(codeArea);
 
@@ -85,41 +96,55 @@ public class NotesEditor extends VBox {
         this.setVgrow(splitPaneNotes, Priority.ALWAYS);
         this.getChildren().addAll(menu, splitPaneNotes);
 
-        Timeline autoRenderHTML = new Timeline(new KeyFrame(Duration.seconds(3), event -> {
-            updateView();
-            save();
-        }));
-        autoRenderHTML.setCycleCount(Timeline.INDEFINITE);
-        autoRenderHTML.play();
+        codeArea.plainTextChanges().successionEnds(RENDER_DELAY).subscribe(change -> updateView());
+        codeArea.plainTextChanges().successionEnds(SAVE_DELAY).subscribe(change -> save());
     }
 
+    /**
+     * Save the notes of the task if they changed. Done after a pause in the typing, and to be done before the
+     * task is replaced or the application stops.
+     */
     public void save() {
         if (task == null) {
             return;
         }
 
-        task.setNotes(codeArea.getText());
+        String notes = codeArea.getText();
+        if (notesStore.save(task, notes)) {
+            onNotesChanged.accept(task, notes);
+        }
+    }
+
+    /**
+     * @param onNotesChanged called with the task and its new notes once they are saved.
+     */
+    public void setOnNotesChanged(BiConsumer<Task, String> onNotesChanged) {
+        this.onNotesChanged = onNotesChanged;
     }
 
     private void updateView() {
-        Parser parser = Parser.builder().build();
-        Node document = parser.parse(codeArea.getText());
-        HtmlRenderer renderer = HtmlRenderer.builder().build();
-        String html = renderer.render(document);
-
-        StringBuilder sb = new StringBuilder("<html><head>");
-        sb.append(WEBVIEW_CSS);
-        sb.append("</head><body>");
-        sb.append(html);
-        sb.append("</body></html>");
-        html = sb.toString();
-
-
-        // Get the current scroll position
-        Object scrollY = webEngine.executeScript("window.pageYOffset || document.documentElement.scrollTop;");
-        // Store the scroll position as a double
-        this.scrollpos = scrollY instanceof Number ? ((Number) scrollY).doubleValue() : 0.0;
-        webEngine.loadContent(html);
+        String notes = codeArea.getText();
+        if (notes.equals(renderedNotes)) {
+            return;
+        }
+        renderedNotes = notes;
+        renderService.render(task, NotesStore.ref(notes), notes, html -> Platform.runLater(() -> {
+            // Another task may have been selected in the meantime
+            if (notes.equals(renderedNotes)) {
+                showHtml(html);
+            }
+        }));
+    }
+
+    private void showHtml(String html) {
+        if (!pageLoaded) {
+            pendingHtml = html;
+            return;
+        }
+        String js = new String(JsonStringEncoder.getInstance().quoteAsString(html))
+                .replace("\u2028", "\\u2028")
+                .replace("\u2029", "\\u2029");
+        webEngine.executeScript("document.body.innerHTML = \"" + js + "\";");
     }
 
     public void setTask(Task task) {
@@ -131,11 +156,31 @@ public class NotesEditor extends VBox {
         }
 
         this.task = task;
-        this.codeArea.replaceText(task.getNotes());
+        String notes = notesStore.load(task);
+        this.codeArea.replaceText(notes);
         lblNotesInfo.setText("Notes of " + task.getViewId());
+
+        // Show the notes right away if they have already been rendered
+        String html = renderService.getCached(task, NotesStore.ref(task));
+        if (html != null) {
+            renderedNotes = notes;
+            showHtml(html);
+        }
+    }
+
+    /**
+     * Render in the background the notes of tasks that may be selected soon.
+     */
+    public void prefetch(List<Task> tasks) {
+        for (Task toPrefetch : tasks) {
+            if (toPrefetch != null && toPrefetch.isValid() && toPrefetch != task) {
+                renderService.prefetch(toPrefetch, () -> notesStore.load(toPrefetch));
+            }
+        }
     }
 
     public void removeTask() {
+        save();
         this.task = null;
         this.codeArea.replaceText("_No task selected_");
         lblNotesInfo.setText("Notes of ...");
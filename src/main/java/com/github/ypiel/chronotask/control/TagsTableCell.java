@@ -6,6 +6,7 @@ import org.controlsfx.control.CheckComboBox;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 
 import javafx.collections.ObservableList;
 import javafx.scene.control.ContentDisplay;
@@ -14,8 +15,10 @@ import javafx.scene.control.TableCell;
 public class TagsTableCell extends TableCell<Task, List<String>> {
 
     private CheckComboBox<String> checkComboBox;
+    private final Consumer<Task> onTagsChanged;
 
-    public TagsTableCell(ObservableList<String> availableTags) {
+    public TagsTableCell(ObservableList<String> availableTags, Consumer<Task> onTagsChanged) {
+        this.onTagsChanged = onTagsChanged;
         this.checkComboBox = new CheckComboBox<>(availableTags);
         checkComboBox.getCheckModel().getCheckedItems().addListener((javafx.collections.ListChangeListener.Change<? extends String> c) -> {
             commitEdit(checkComboBox.getCheckModel().getCheckedItems());
@@ -57,6 +60,7 @@ public class TagsTableCell extends TableCell<Task, List<String>> {
         if (task != null) {
             List<String> selectedTags = new ArrayList<>(checkComboBox.getCheckModel().getCheckedItems());
             task.setTags(selectedTags);
+            onTagsChanged.accept(task);
             setText(String.join(", ", selectedTags));
             setGraphic(null);
             setContentDisplay(ContentDisplay.TEXT_ONLY);
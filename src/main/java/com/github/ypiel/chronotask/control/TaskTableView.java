@@ -4,22 +4,33 @@ import java.awt.*;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 import com.github.ypiel.chronotask.ChronoTask;
+import com.github.ypiel.chronotask.business.JfrEvents;
+import com.github.ypiel.chronotask.business.Metrics;
+import com.github.ypiel.chronotask.business.TaskSearchIndex;
 import com.github.ypiel.chronotask.model.Status;
 import com.github.ypiel.chronotask.model.Task;
 
+import javafx.animation.PauseTransition;
 import javafx.beans.property.BooleanProperty;
 import javafx.beans.property.SimpleBooleanProperty;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.beans.property.StringProperty;
 import javafx.collections.FXCollections;
+import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
-import javafx.collections.transformation.FilteredList;
+import javafx.collections.transformation.SortedList;
 import javafx.scene.control.Hyperlink;
 import javafx.scene.control.TableCell;
 import javafx.scene.control.TableColumn;
@@ -27,6 +38,7 @@ import javafx.scene.control.TableView;
 import javafx.scene.control.cell.ComboBoxTableCell;
 import javafx.scene.control.cell.PropertyValueFactory;
 import javafx.scene.control.cell.TextFieldTableCell;
+import javafx.util.Duration;
 import javafx.util.converter.DefaultStringConverter;
 import javafx.util.converter.IntegerStringConverter;
 import lombok.extern.slf4j.Slf4j;
@@ -34,10 +46,37 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 public class TaskTableView extends TableView<Task> {
 
+    private static final Metrics.Timer FILTER_TIMER = Metrics.timer("filter.apply");
+
     private BooleanProperty hideClosed = new SimpleBooleanProperty(false);
 
     private StringProperty filterProperty = new SimpleStringProperty("");
 
+    private Consumer<Task> onTaskChanged = task -> {
+    };
+
+    private TaskSearchIndex searchIndex;
+
+    /**
+     * All the tasks, with an empty one at the end for task creation. The table shows them filtered and sorted.
+     * A new list for each {@link #setTasks(List)}, it may be given to the parent of the tasks.
+     */
+    private ObservableList<Task> source;
+    /**
+     * The tasks of the source matching the filter, kept up to date with the source, so a filter narrowing the
+     * previous one only tests them.
+     */
+    private ObservableList<Task> shown;
+    private SortedList<Task> sortedTasks;
+    private Predicate<Task> predicate = task -> true;
+    private final ListChangeListener<Task> sourceListener = this::sourceChanged;
+
+    // The keystrokes typed in the filter during this delay are applied at once
+    private final PauseTransition filterDelay = new PauseTransition(Duration.millis(250));
+    private String appliedFilter = "";
+    private boolean appliedHideClosed = false;
+    private Map<String, Integer> scores;
+
     public TaskTableView() {
         this(new ArrayList<>());
     }
@@ -46,11 +85,13 @@ public class TaskTableView extends TableView<Task> {
         this.setTasks(tasks);
 
         hideClosed.addListener((observable, oldValue, newValue) -> {
-            this.setTasks(this.getAllItems());
+            filterDelay.stop();
+            this.applyFilter(true);
         });
 
+        filterDelay.setOnFinished(event -> this.applyFilter(true));
         filterProperty.addListener((observable, oldValue, newValue) -> {
-            this.setTasks(this.getAllItems());
+            filterDelay.playFromStart();
         });
 
         TableColumn<Task, Integer> orderColumn = new TableColumn<>("Order");
@@ -58,6 +99,8 @@ public class TaskTableView extends TableView<Task> {
         orderColumn.setOnEditCommit(event -> {
             Task task = event.getRowValue();
             task.setOrder(event.getNewValue());
+            refreshTask(task);
+            onTaskChanged.accept(task);
         });
 
         TableColumn<Task, String> idColumn = new TableColumn<>("ID");
@@ -65,6 +108,8 @@ public class TaskTableView extends TableView<Task> {
         idColumn.setOnEditCommit(event -> {
             Task task = event.getRowValue();
             task.setId(event.getNewValue());
+            refreshTask(task);
+            onTaskChanged.accept(task);
         });
 
         TableColumn<Task, String> shortDescriptionColumn = new TableColumn<>("Short Description");
@@ -72,6 +117,7 @@ public class TaskTableView extends TableView<Task> {
         shortDescriptionColumn.setOnEditCommit(event -> {
             Task task = event.getRowValue();
             task.setShortDescription(event.getNewValue());
+            onTaskChanged.accept(task);
         });
 
         TableColumn<Task, Status> statusColumn = new TableColumn<>("Status");
@@ -79,12 +125,14 @@ public class TaskTableView extends TableView<Task> {
         statusColumn.setOnEditCommit(event -> {
             Task task = event.getRowValue();
             task.setStatus(event.getNewValue());
+            refreshTask(task);
+            onTaskChanged.accept(task);
         });
 
         // Tags
         ObservableList<String> availableTags = FXCollections.observableArrayList(Arrays.asList(ChronoTask.mainTopics));
         TableColumn<Task, List<String>> tagsColumn = new TableColumn<>("Tags");
-        tagsColumn.setCellFactory(column -> new TagsTableCell(availableTags));
+        tagsColumn.setCellFactory(column -> new TagsTableCell(availableTags, task -> onTaskChanged.accept(task)));
 
 
         TableColumn<Task, Void> openColumn = new TableColumn<>("Open");
@@ -147,15 +195,10 @@ public class TaskTableView extends TableView<Task> {
         this.setOnKeyPressed(event -> {
             switch (event.getCode()) {
                 case ENTER:
-                    Task last = this.getItems().getLast();
-                    if (!last.isValid()) {
+                    if (source.stream().anyMatch(task -> !task.isValid())) {
                         break;
                     }
-                    ObservableList<Task> items = this.getItems();
-                    if (items instanceof FilteredList) {
-                        items = ((FilteredList) items).getSource();
-                    }
-                    items.add(new Task());
+                    source.add(new Task());
                     this.getSelectionModel().clearSelection();
                     break;
                 default:
@@ -165,23 +208,174 @@ public class TaskTableView extends TableView<Task> {
     }
 
     public void setTasks(final List<Task> tasks) {
-        List<Task> sorted = tasks.stream().filter(Task::isValid).sorted(Comparator.comparingInt(Task::getOrder)).collect(Collectors.toList()).reversed();
-        ObservableList<Task> observableTasks = FXCollections.observableArrayList(sorted);
-        observableTasks.add(new Task()); // Add empty line for task creation
-        FilteredList<Task> filteredTasks = new FilteredList<>(observableTasks, task -> {
-            return (task.getStatus() != Status.Closed || !hideClosed.get()) &&
-                    (task.getId().toLowerCase(Locale.ROOT).contains(this.filterProperty.get().toLowerCase(Locale.ROOT)) ||
-                            task.getShortDescription().toLowerCase(Locale.ROOT).contains(this.filterProperty.get().toLowerCase(Locale.ROOT)));
-        });
-        this.setItems(filteredTasks);
+        List<Task> valid = tasks.stream().filter(Task::isValid).collect(Collectors.toList());
+        valid.add(new Task()); // Add empty line for task creation
+        if (source != null) {
+            // The previous list may still be changed by the parent it was given to
+            source.removeListener(sourceListener);
+        }
+        source = FXCollections.observableArrayList(valid);
+        shown = FXCollections.observableArrayList();
+        source.addListener(sourceListener);
+        sortedTasks = new SortedList<>(shown);
+        this.setItems(sortedTasks);
+        this.applyFilter(false);
+    }
+
+    /**
+     * Show the tasks added to the source that match the filter, test again the ones replaced, e.g. by
+     * {@link #refreshTask(Task)}, and hide the ones removed.
+     */
+    private void sourceChanged(ListChangeListener.Change<? extends Task> change) {
+        while (change.next()) {
+            if (change.wasPermutated()) {
+                continue;
+            }
+            Set<Task> replaced = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (Task added : change.getAddedSubList()) {
+                if (change.getRemoved().stream().anyMatch(removed -> removed == added)) {
+                    replaced.add(added);
+                }
+                int index = indexOfShown(added);
+                if (index < 0) {
+                    if (predicate.test(added)) {
+                        shown.add(added);
+                    }
+                } else if (replaced.contains(added)) {
+                    if (predicate.test(added)) {
+                        shown.set(index, added);
+                    } else {
+                        shown.remove(index);
+                    }
+                }
+            }
+            for (Task removed : change.getRemoved()) {
+                int index = indexOfShown(removed);
+                if (index >= 0 && !replaced.contains(removed)) {
+                    shown.remove(index);
+                }
+            }
+        }
     }
 
-    public List<Task> getAllItems() {
-        ObservableList<Task> items = this.getItems();
-        if (items instanceof FilteredList) {
-            items = ((FilteredList) items).getSource();
+    private int indexOfShown(Task task) {
+        for (int i = 0; i < shown.size(); i++) {
+            if (shown.get(i) == task) {
+                return i;
+            }
         }
-        return items;
+        return -1;
+    }
+
+    /**
+     * Filter the tasks with the given index instead of looking for the filter in their id and short description.
+     */
+    public void setSearchIndex(TaskSearchIndex searchIndex) {
+        this.searchIndex = searchIndex;
+        this.applyFilter(false);
+    }
+
+    /**
+     * Filter all the tasks again, after they changed.
+     */
+    public void refreshFilter() {
+        this.applyFilter(false);
+    }
+
+    /**
+     * Apply the current filter. When {@code incremental} and the filter only narrows the previous one, only the
+     * tasks currently shown are tested, and only those are scored by the search index.
+     */
+    private void applyFilter(boolean incremental) {
+        String filter = filterProperty.get();
+        if (incremental && filter.equals(appliedFilter) && hideClosed.get() == appliedHideClosed) {
+            return;
+        }
+        JfrEvents.FilterEvent event = new JfrEvents.FilterEvent();
+        event.begin();
+        long start = FILTER_TIMER.start();
+        boolean narrows = incremental && (hideClosed.get() || !appliedHideClosed) && (filter.equals(appliedFilter) ||
+                (searchIndex == null ? filter.toLowerCase(Locale.ROOT).contains(appliedFilter.toLowerCase(Locale.ROOT)) :
+                        TaskSearchIndex.narrows(appliedFilter, filter)));
+        appliedFilter = filter;
+        appliedHideClosed = hideClosed.get();
+
+        Map<String, Integer> previousScores = scores;
+        scores = searchIndex == null ? null : searchIndex.search(filter, narrows && previousScores != null ? previousScores.keySet() : null);
+        predicate = task -> matches(task, filter);
+        int tested;
+        if (narrows) {
+            // The tasks hidden by the previous filter stay hidden without being tested
+            tested = shown.size();
+            Set<Task> rejected = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (Task task : shown) {
+                if (!predicate.test(task)) {
+                    rejected.add(task);
+                }
+            }
+            shown.removeAll(rejected);
+        } else {
+            tested = source.size();
+            shown.setAll(source.filtered(predicate));
+        }
+        sortedTasks.setComparator(comparator());
+        FILTER_TIMER.stop(start);
+        if (event.shouldCommit()) {
+            event.filter = filter;
+            event.incremental = narrows;
+            event.tasks = tested;
+            event.commit();
+        }
+    }
+
+    private boolean matches(Task task, String filter) {
+        if (task.getStatus() == Status.Closed && hideClosed.get()) {
+            return false;
+        }
+        if (searchIndex != null) {
+            return scores == null || scores.containsKey(task.getUid());
+        }
+        return task.getId().toLowerCase(Locale.ROOT).contains(filter.toLowerCase(Locale.ROOT)) ||
+                task.getShortDescription().toLowerCase(Locale.ROOT).contains(filter.toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * The new tasks at the end, the best matches of the filter first, then the highest orders first.
+     */
+    private Comparator<Task> comparator() {
+        Comparator<Task> comparator = Comparator.comparing(task -> !task.isValid());
+        Map<String, Integer> taskScores = scores;
+        if (taskScores != null) {
+            comparator = comparator.thenComparing(Comparator.<Task>comparingInt(task -> taskScores.getOrDefault(task.getUid(), 0)).reversed());
+        }
+        return comparator.thenComparing(Comparator.comparingInt(Task::getOrder).reversed());
+    }
+
+    /**
+     * Notify the lists that a task changed, so it is filtered and sorted again.
+     */
+    private void refreshTask(Task task) {
+        for (int i = 0; i < source.size(); i++) {
+            if (source.get(i) == task) {
+                source.set(i, task);
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the tasks given to the last {@link #setTasks(List)}, and the ones added in the table since, in a list
+     * of their own: the next call uses another list.
+     */
+    public ObservableList<Task> getAllItems() {
+        return source;
+    }
+
+    /**
+     * @param onTaskChanged called each time a field of a task is edited in the table.
+     */
+    public void setOnTaskChanged(Consumer<Task> onTaskChanged) {
+        this.onTaskChanged = onTaskChanged;
     }
 
     public void setShowEnabledTasks(boolean showEnabledTasks) {
@@ -0,0 +1,252 @@
+package com.github.ypiel.chronotask.model;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+
+import java.io.Serializable;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Durations of a task by date, stored in parallel primitive arrays sorted by epoch day.
+ * <p>
+ * Adding time to today's entry is a constant time operation that allocates nothing. The entry of any date is
+ * found with a binary search, as well as a range of dates.
+ * <p>
+ * It is also a {@link List} of {@link Task.DurationByDate}, from the most recent date to the oldest one, so it
+ * is serialized as before. The {@link Task.DurationByDate} are views created on demand: modifying them doesn't
+ * change the history, use {@link #setMillis(long, long)}, {@link #setNotes(long, String)} or
+ * {@link #put(Task.DurationByDate)}. The entries are ordered by date, so the list can't be modified by position:
+ * its {@code add}, {@code set} and {@code remove} throw an {@link UnsupportedOperationException}.
+ */
+public class DurationHistory extends AbstractList<Task.DurationByDate> implements Serializable {
+
+    private int[] epochDays;
+    private long[] millis;
+    private String[] notes;
+    private int size = 0;
+
+    public DurationHistory() {
+        this(10);
+    }
+
+    public DurationHistory(int capacity) {
+        this.epochDays = new int[capacity];
+        this.millis = new long[capacity];
+        this.notes = new String[capacity];
+    }
+
+    public DurationHistory(Collection<Task.DurationByDate> durationsByDate) {
+        this(durationsByDate.size());
+        durationsByDate.forEach(this::put);
+    }
+
+    /**
+     * Build the history from entries sorted from the most recent one, as they are serialized.
+     */
+    @JsonCreator
+    public static DurationHistory of(List<Task.DurationByDate> durationsByDate) {
+        DurationHistory history = new DurationHistory(durationsByDate.size());
+        // Add from the oldest so each entry is appended at the end of the arrays
+        for (int i = durationsByDate.size() - 1; i >= 0; i--) {
+            history.put(durationsByDate.get(i));
+        }
+        return history;
+    }
+
+    public boolean contains(LocalDate date) {
+        return find(date.toEpochDay()) >= 0;
+    }
+
+    /**
+     * @return the duration of the given day in milliseconds, {@code 0} if there is no entry for this day.
+     */
+    public long getMillis(long epochDay) {
+        int index = find(epochDay);
+        return index < 0 ? 0 : millis[index];
+    }
+
+    public long getMillis(LocalDate date) {
+        return getMillis(date.toEpochDay());
+    }
+
+    /**
+     * Add time to a day, creating its entry if needed.
+     *
+     * @return the new duration of the day in milliseconds.
+     */
+    public long addMillis(long epochDay, long toAdd) {
+        int index = findOrCreate(epochDay);
+        millis[index] += toAdd;
+        return millis[index];
+    }
+
+    public void setMillis(long epochDay, long value) {
+        // Not inlined: the array may be replaced when the day is created
+        int index = findOrCreate(epochDay);
+        millis[index] = value;
+    }
+
+    public String getNotes(long epochDay) {
+        int index = find(epochDay);
+        return index < 0 || notes[index] == null ? "" : notes[index];
+    }
+
+    public void setNotes(long epochDay, String value) {
+        int index = findOrCreate(epochDay);
+        notes[index] = value == null || value.isEmpty() ? null : value;
+    }
+
+    /**
+     * Set the duration and the notes of the date of the entry, creating it at the position of its date if needed.
+     */
+    public void put(Task.DurationByDate durationByDate) {
+        long epochDay = durationByDate.getDate().toEpochDay();
+        setMillis(epochDay, durationByDate.getDuration().toMillis());
+        setNotes(epochDay, durationByDate.getNotes());
+    }
+
+    /**
+     * @return the entry of the given date, or {@code null} if there is none.
+     */
+    public Task.DurationByDate get(LocalDate date) {
+        int index = find(date.toEpochDay());
+        return index < 0 ? null : view(index);
+    }
+
+    /**
+     * @return the entries from {@code from} to {@code to} included, the most recent first.
+     */
+    public List<Task.DurationByDate> between(LocalDate from, LocalDate to) {
+        int first = position(from.toEpochDay());
+        int last = position(to.toEpochDay() + 1);
+        Task.DurationByDate[] views = new Task.DurationByDate[Math.max(0, last - first)];
+        for (int i = last - 1; i >= first; i--) {
+            views[last - 1 - i] = view(i);
+        }
+        return Arrays.asList(views);
+    }
+
+    /**
+     * @return the total duration in milliseconds from {@code fromEpochDay} to {@code toEpochDay} included.
+     */
+    public long sumMillis(long fromEpochDay, long toEpochDay) {
+        long sum = 0;
+        for (int i = position(fromEpochDay); i < size && epochDays[i] <= toEpochDay; i++) {
+            sum += millis[i];
+        }
+        return sum;
+    }
+
+    /**
+     * @return the epoch day of the entry at the given position, the oldest being at {@code 0}.
+     */
+    public long epochDayAt(int index) {
+        return epochDays[index];
+    }
+
+    public long millisAt(int index) {
+        return millis[index];
+    }
+
+    public String notesAt(int index) {
+        return notes[index] == null ? "" : notes[index];
+    }
+
+    @Override
+    public Task.DurationByDate get(int index) {
+        return view(size - 1 - index);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void add(int index, Task.DurationByDate durationByDate) {
+        throw new UnsupportedOperationException("The entries are ordered by date, use put.");
+    }
+
+    @Override
+    public Task.DurationByDate remove(int index) {
+        throw new UnsupportedOperationException("The entries are ordered by date.");
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(notes, 0, size, null);
+        size = 0;
+        modCount++;
+    }
+
+    /**
+     * @return an independent copy of the history, to read it on another thread while this one is updated.
+     */
+    public DurationHistory copy() {
+        DurationHistory copy = new DurationHistory(size);
+        System.arraycopy(epochDays, 0, copy.epochDays, 0, size);
+        System.arraycopy(millis, 0, copy.millis, 0, size);
+        System.arraycopy(notes, 0, copy.notes, 0, size);
+        copy.size = size;
+        return copy;
+    }
+
+    private Task.DurationByDate view(int index) {
+        return new Task.DurationByDate(LocalDate.ofEpochDay(epochDays[index]), Duration.ofMillis(millis[index]), notesAt(index));
+    }
+
+    private int find(long epochDay) {
+        // Most of the time the searched entry is today's one
+        if (size > 0 && epochDays[size - 1] == epochDay) {
+            return size - 1;
+        }
+        int index = position(epochDay);
+        return index < size && epochDays[index] == epochDay ? index : -1;
+    }
+
+    private int findOrCreate(long epochDay) {
+        int index = find(epochDay);
+        if (index >= 0) {
+            return index;
+        }
+
+        index = position(epochDay);
+        if (size == epochDays.length) {
+            int capacity = Math.max(10, size + (size >> 1));
+            epochDays = Arrays.copyOf(epochDays, capacity);
+            millis = Arrays.copyOf(millis, capacity);
+            notes = Arrays.copyOf(notes, capacity);
+        }
+        System.arraycopy(epochDays, index, epochDays, index + 1, size - index);
+        System.arraycopy(millis, index, millis, index + 1, size - index);
+        System.arraycopy(notes, index, notes, index + 1, size - index);
+        epochDays[index] = (int) epochDay;
+        millis[index] = 0;
+        notes[index] = null;
+        size++;
+        modCount++;
+        return index;
+    }
+
+    /**
+     * @return the position of the first entry at or after the given day.
+     */
+    private int position(long epochDay) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (epochDays[middle] < epochDay) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+}
@@ -9,25 +9,31 @@ import java.time.Duration;
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.UUID;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import lombok.ToString;
+import lombok.With;
 
 @Data
 @ToString
 @NoArgsConstructor
+@AllArgsConstructor
 public class Task implements Serializable {
+    private String uid = UUID.randomUUID().toString();
     private int order = 0;
     private String id = "";
     private String shortDescription = "";
     private String notes = "";
+    private String notesRef = "";
     private Status status = Status.New;
     private List<String> tags = new ArrayList<>();
+    @With
     private List<Task> subTasks = new ArrayList<>(5);
-    private List<DurationByDate> durationsByDate = new ArrayList<>(10);
+    private DurationHistory durationsByDate = new DurationHistory();
     private Class autoTaskAction = IntervalAutoTaskAction.class;
 
     @JsonIgnore